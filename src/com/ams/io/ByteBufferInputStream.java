@@ -1,15 +1,19 @@
 package com.ams.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 import com.ams.io.buffer.BufferUtils;
+import com.ams.io.buffer.DataBuffer;
 import com.ams.io.buffer.IByteBufferReader;
+import com.ams.io.buffer.PooledBuffer;
 
 public class ByteBufferInputStream extends InputStream {
     protected IByteBufferReader reader = null;
-    protected byte[] line = new byte[4096];
+    protected byte[] line = null; // allocated by the first readLine
+    private byte[] one = new byte[1];
 
     public ByteBufferInputStream(IByteBufferReader reader) {
         this.reader = reader;
@@ -18,6 +22,9 @@ public class ByteBufferInputStream extends InputStream {
     public synchronized String readLine() throws IOException {
         // throw an exception if the stream is closed
         // closedCheck();
+        if (line == null) {
+            line = new byte[4096];
+        }
         int index = 0;
         boolean marked = false;
         while (true) {
@@ -57,7 +64,12 @@ public class ByteBufferInputStream extends InputStream {
     }
 
     public int read() throws IOException {
-        byte[] one = new byte[1];
+        PooledBuffer buf = reader.peekBuffer();
+        if (buf != null) {
+            int b = buf.getBuffer().get() & 0xff;
+            reader.consume(1);
+            return b;
+        }
         // read 1 byte
         int amount = read(one, 0, 1);
         // return EOF / the byte
@@ -72,67 +84,137 @@ public class ByteBufferInputStream extends InputStream {
                 || (length < 0)) { // check indices
             throw new IndexOutOfBoundsException();
         }
-        ByteBuffer[] buffers = reader.read(length);
-        if (buffers == null)
-            return -1;
         int readBytes = 0;
-        for (ByteBuffer buffer : buffers) {
+        PooledBuffer buf;
+        while (length > 0 && (buf = reader.peekBuffer()) != null) {
+            int size = Math.min(length, buf.remaining());
+            buf.getBuffer().get(data, offset, size);
+            reader.consume(size);
+            offset += size;
+            length -= size;
+            readBytes += size;
+        }
+        if (length == 0)
+            return readBytes;
+        PooledBuffer[] buffers = reader.read(length);
+        if (buffers == null)
+            return readBytes > 0 ? readBytes : -1;
+        for (PooledBuffer buffer : buffers) {
             int size = buffer.remaining();
-            buffer.get(data, offset, size);
+            buffer.getBuffer().get(data, offset, size);
             offset += size;
             readBytes += size;
-            buffer = null;
+            buffer.release();
         }
         return readBytes;
     }
 
+    // the current buffer if it holds the whole value, null at a buffer boundary
+    private ByteBuffer buffered(int size) {
+        PooledBuffer buf = reader.peekBuffer();
+        return (buf != null && buf.remaining() >= size) ? buf.getBuffer() : null;
+    }
+
+    // big endian value split across buffers, read byte by byte
+    private long readBits(int bytes) throws IOException {
+        long v = 0;
+        for (int i = 0; i < bytes; i++) {
+            int b = read();
+            if (b < 0)
+                throw new EOFException();
+            v = (v << 8) | b;
+        }
+        return v;
+    }
+
     public byte readByte() throws IOException {
-        byte[] b = new byte[1];
-        read(b, 0, 1);
-        return b[0];
+        return (byte) readBits(1);
     }
 
     public int read16Bit() throws IOException {
-        byte[] b = new byte[2];
-        read(b, 0, 2); // 16Bit read
-        return BufferUtils.from16Bit(b);
+        ByteBuffer buf = buffered(2);
+        if (buf == null)
+            return (int) readBits(2);
+        int v = buf.getShort() & 0xFFFF;
+        reader.consume(2);
+        return v;
     }
 
     public int read24Bit() throws IOException {
-        byte[] b = new byte[3];
-        read(b, 0, 3); // 24Bit read
-        return BufferUtils.from24Bit(b);
+        ByteBuffer buf = buffered(3);
+        if (buf == null)
+            return (int) readBits(3);
+        int v = ((buf.get() & 0xFF) << 16) | (buf.getShort() & 0xFFFF);
+        reader.consume(3);
+        return v;
     }
 
     public long read32Bit() throws IOException {
-        byte[] b = new byte[4];
-        read(b, 0, 4); // 32Bit read
-        return BufferUtils.from32Bit(b);
+        ByteBuffer buf = buffered(4);
+        if (buf == null)
+            return readBits(4);
+        long v = buf.getInt() & 0xFFFFFFFFL;
+        reader.consume(4);
+        return v;
+    }
+
+    public long read64Bit() throws IOException {
+        ByteBuffer buf = buffered(8);
+        if (buf == null)
+            return readBits(8);
+        long v = buf.getLong();
+        reader.consume(8);
+        return v;
     }
 
     public int read16BitLittleEndian() throws IOException {
-        byte[] b = new byte[2];
-        read(b, 0, 2);
         // 16 Bit read, LITTLE-ENDIAN
-        return BufferUtils.from16BitLittleEndian(b);
+        return Integer.reverseBytes(read16Bit()) >>> 16;
     }
 
     public int read24BitLittleEndian() throws IOException {
-        byte[] b = new byte[3];
-        read(b, 0, 3);
         // 24 Bit read, LITTLE-ENDIAN
-        return BufferUtils.from24BitLittleEndian(b);
+        return Integer.reverseBytes(read24Bit()) >>> 8;
     }
 
     public long read32BitLittleEndian() throws IOException {
-        byte[] b = new byte[4];
-        read(b, 0, 4);
         // 32 Bit read, LITTLE-ENDIAN
-        return BufferUtils.from32BitLittleEndian(b);
+        return Integer.reverseBytes((int) read32Bit()) & 0xFFFFFFFFL;
+    }
+
+    public long read64BitLittleEndian() throws IOException {
+        return Long.reverseBytes(read64Bit());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(read64Bit());
+    }
+
+    public void readFully(byte[] data) throws IOException {
+        readFully(data, 0, data.length);
     }
 
-    public ByteBuffer[] readByteBuffer(int size) throws IOException {
+    public void readFully(byte[] data, int offset, int length) throws IOException {
+        if (read(data, offset, length) < length)
+            throw new EOFException();
+    }
+
+    public PooledBuffer[] readByteBuffer(int size) throws IOException {
         return reader.read(size);
     }
 
+    // appends read-only slices of the reader's buffers to data
+    public void readByteBuffer(DataBuffer data, int size) throws IOException {
+        PooledBuffer buf;
+        while (size > 0 && (buf = reader.peekBuffer()) != null) {
+            int n = Math.min(size, buf.remaining());
+            data.write(BufferUtils.trimReadOnly(buf, n));
+            reader.consume(n);
+            size -= n;
+        }
+        if (size > 0) {
+            data.write(reader.read(size));
+        }
+    }
+
 }
@@ -4,14 +4,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
-import com.ams.io.buffer.BufferUtils;
 import com.ams.io.buffer.ByteBufferFactory;
 import com.ams.io.buffer.DataBuffer;
 import com.ams.io.buffer.IByteBufferWriter;
+import com.ams.io.buffer.PooledBuffer;
 
 public class ByteBufferOutputStream extends OutputStream {
     protected static final int WRITE_BUFFER_SIZE = 512;
-    protected ByteBuffer writeBuffer = null;
+    protected PooledBuffer writeBuffer = null;
     protected IByteBufferWriter writer = null;
 
     public ByteBufferOutputStream(IByteBufferWriter writer) {
@@ -20,74 +20,85 @@ public class ByteBufferOutputStream extends OutputStream {
 
     public synchronized void flush() throws IOException {
         if (writeBuffer != null) {
-            writeBuffer.flip();
-            writer.write(new ByteBuffer[] { writeBuffer });
+            writeBuffer.getBuffer().flip();
+            writer.write(new PooledBuffer[] { writeBuffer });
             writeBuffer = null;
         }
     }
 
     public synchronized void write(byte[] data, int offset, int len)
             throws IOException {
-        while (true) {
-            if (writeBuffer == null) {
-                int size = Math.max(len, WRITE_BUFFER_SIZE);
-                writeBuffer = ByteBufferFactory.allocate(size);
-            }
-            if (writeBuffer.remaining() >= len) {
-                writeBuffer.put(data, offset, len);
-                break;
-            }
-            flush();
-        }
+        reserve(len).put(data, offset, len);
     }
 
     public void write(byte[] data) throws IOException {
         write(data, 0, data.length);
     }
 
+    // the write buffer with room for size more bytes
+    private ByteBuffer reserve(int size) throws IOException {
+        if (writeBuffer == null || writeBuffer.remaining() < size) {
+            flush();
+            writeBuffer = ByteBufferFactory.allocate(Math.max(size, WRITE_BUFFER_SIZE));
+        }
+        return writeBuffer.getBuffer();
+    }
+
     public void write(int data) throws IOException {
-        byte[] b = new byte[1];
-        b[0] = (byte) (data & 0xFF);
-        write(b, 0, 1);
+        writeByte(data);
     }
 
-    public void writeByte(int v) throws IOException {
-        byte[] b = new byte[1];
-        b[0] = (byte) (v & 0xFF);
-        write(b, 0, 1);
+    public synchronized void writeByte(int v) throws IOException {
+        reserve(1).put((byte) v);
     }
 
-    public void write16Bit(int v) throws IOException {
-        write(BufferUtils.to16Bit(v));
+    public synchronized void write16Bit(int v) throws IOException {
+        reserve(2).putShort((short) v);
     }
 
-    public void write24Bit(int v) throws IOException {
-        write(BufferUtils.to24Bit(v)); // 24bit
+    public synchronized void write24Bit(int v) throws IOException {
+        ByteBuffer buf = reserve(3);
+        buf.put((byte) (v >>> 16));
+        buf.putShort((short) v);
     }
 
-    public void write32Bit(long v) throws IOException {
-        write(BufferUtils.to32Bit(v)); // 32bit
+    public synchronized void write32Bit(long v) throws IOException {
+        reserve(4).putInt((int) v);
     }
 
-    public void write16BitLittleEndian(int v) throws IOException {
+    public synchronized void write64Bit(long v) throws IOException {
+        reserve(8).putLong(v);
+    }
+
+    public synchronized void write16BitLittleEndian(int v) throws IOException {
         // 16bit write, LITTLE-ENDIAN
-        write(BufferUtils.to16BitLittleEndian(v));
+        reserve(2).putShort(Short.reverseBytes((short) v));
     }
 
-    public void write24BitLittleEndian(int v) throws IOException {
-        write(BufferUtils.to24BitLittleEndian(v)); // 24bit
+    public synchronized void write24BitLittleEndian(int v) throws IOException {
+        ByteBuffer buf = reserve(3);
+        buf.put((byte) v);
+        buf.putShort(Short.reverseBytes((short) (v >>> 8)));
     }
 
-    public void write32BitLittleEndian(long v) throws IOException {
+    public synchronized void write32BitLittleEndian(long v) throws IOException {
         // 32bit write, LITTLE-ENDIAN
-        write(BufferUtils.to32BitLittleEndian(v));
+        reserve(4).putInt(Integer.reverseBytes((int) v));
+    }
+
+    public synchronized void write64BitLittleEndian(long v) throws IOException {
+        reserve(8).putLong(Long.reverseBytes(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        write64Bit(Double.doubleToLongBits(v));
     }
 
     public void writeByteBuffer(DataBuffer data) throws IOException {
         writeByteBuffer(data.getBuffers());
     }
 
-    public void writeByteBuffer(ByteBuffer[] data) throws IOException {
+    public void writeByteBuffer(PooledBuffer[] data) throws IOException {
         flush();
         writer.write(data);
     }
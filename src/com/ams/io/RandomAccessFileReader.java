@@ -4,20 +4,21 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import com.ams.io.buffer.BufferUtils;
 import com.ams.io.buffer.ByteBufferFactory;
 import com.ams.io.buffer.IByteBufferReader;
+import com.ams.io.buffer.PooledBuffer;
 
 public class RandomAccessFileReader implements IByteBufferReader {
     private static int BUFFER_SIZE = 8 * 1024;
     private RandomAccessFile file;
     private FileChannel channel = null;
-    private ByteBuffer buffer = null;
+    private PooledBuffer buffer = null;
     private long position = 0;
     private boolean eof = false;
+    private byte[] one = new byte[1];
 
     private RandomAccessFile openFile(String fileName) throws IOException {
         RandomAccessFile raFile = null;
@@ -41,9 +42,11 @@ public class RandomAccessFileReader implements IByteBufferReader {
         position = startPosition;
     }
 
-    public int readByte() throws IOException {
-        byte[] one = new byte[1];
-
+    public synchronized int readByte() throws IOException {
+        if (buffer != null && buffer.hasRemaining()) {
+            position++;
+            return buffer.getBuffer().get() & 0xff;
+        }
         // read 1 byte
         int amount = read(one, 0, 1);
         // return EOF / the byte
@@ -64,40 +67,41 @@ public class RandomAccessFileReader implements IByteBufferReader {
             if (buffer != null && buffer.hasRemaining()) {
                 int remain = buffer.remaining();
                 if (length >= remain) {
-                    buffer.get(data, offset, remain);
-                    buffer = null;
+                    buffer.getBuffer().get(data, offset, remain);
+                    releaseBuffer();
                     length -= remain;
                     position += remain;
                     offset += remain;
                     amount += remain;
                 } else {
-                    buffer.get(data, offset, length);
+                    buffer.getBuffer().get(data, offset, length);
                     position += length;
                     offset += length;
                     amount += length;
                     length = 0;
                 }
             } else {
+                releaseBuffer();
                 this.buffer = ByteBufferFactory.allocate(BUFFER_SIZE);
-                int len = channel.read(buffer);
+                int len = channel.read(buffer.getBuffer());
                 if (len < 0) {
                     eof = true;
-                    this.buffer = null;
+                    releaseBuffer();
                     throw new EOFException("stream is eof");
                 }
-                buffer.flip();
+                buffer.getBuffer().flip();
             }
         } // end while
         return amount;
     }
 
-    public synchronized ByteBuffer[] read(int size) throws IOException {
+    public synchronized PooledBuffer[] read(int size) throws IOException {
         // throw an exception if eof
         if (eof) {
             throw new EOFException("stream is eof");
         }
 
-        ArrayList<ByteBuffer> list = new ArrayList<ByteBuffer>();
+        ArrayList<PooledBuffer> list = new ArrayList<PooledBuffer>();
         int length = size;
         while (length > 0) {
             // read a buffer
@@ -109,39 +113,51 @@ public class RandomAccessFileReader implements IByteBufferReader {
                     length -= remain;
                     position += remain;
                 } else {
-                    ByteBuffer slice = BufferUtils.trim(buffer, length);
+                    PooledBuffer slice = BufferUtils.trim(buffer, length);
 
                     list.add(slice);
                     position += length;
                     length = 0;
                 }
             } else {
+                releaseBuffer();
                 this.buffer = ByteBufferFactory.allocate(BUFFER_SIZE);
-                int len = channel.read(buffer);
+                int len = channel.read(buffer.getBuffer());
                 if (len < 0) {
                     eof = true;
-                    this.buffer = null;
+                    releaseBuffer();
                     throw new EOFException("stream is eof");
                 }
-                buffer.flip();
+                buffer.getBuffer().flip();
             }
         } // end while
-        return list.toArray(new ByteBuffer[list.size()]);
+        return list.toArray(new PooledBuffer[list.size()]);
+    }
+
+    public synchronized PooledBuffer peekBuffer() {
+        return (buffer != null && buffer.hasRemaining()) ? buffer : null;
+    }
+
+    public synchronized void consume(int size) {
+        position += size;
+        if (!buffer.hasRemaining()) {
+            releaseBuffer();
+        }
     }
 
     public synchronized void seek(long startPosition) throws IOException {
         if (this.buffer != null) {
-            int bufferPosition = buffer.position();
+            int bufferPosition = buffer.getBuffer().position();
             if (startPosition >= position - bufferPosition
                     && startPosition < position + buffer.remaining()) {
-                buffer.position((int) (startPosition - position + bufferPosition));
+                buffer.getBuffer().position((int) (startPosition - position + bufferPosition));
                 position = startPosition;
                 return;
             }
         }
         position = startPosition;
         file.seek(position);
-        this.buffer = null;
+        releaseBuffer();
         this.eof = false;
     }
 
@@ -153,7 +169,15 @@ public class RandomAccessFileReader implements IByteBufferReader {
         return eof;
     }
 
-    public void close() throws IOException {
+    private void releaseBuffer() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        releaseBuffer();
         file.close();
     }
 
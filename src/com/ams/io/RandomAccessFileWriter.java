@@ -8,6 +8,7 @@ import java.nio.channels.FileChannel;
 
 import com.ams.io.buffer.ByteBufferFactory;
 import com.ams.io.buffer.IByteBufferWriter;
+import com.ams.io.buffer.PooledBuffer;
 
 public class RandomAccessFileWriter implements IByteBufferWriter {
     private RandomAccessFile file;
@@ -36,8 +37,13 @@ public class RandomAccessFileWriter implements IByteBufferWriter {
         this.channel = file.getChannel();
     }
 
-    public void write(ByteBuffer[] data) throws IOException {
-        channel.write(data);
+    public void write(PooledBuffer[] data) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[data.length];
+        for (int i = 0; i < data.length; i++) {
+            buffers[i] = data[i].getBuffer();
+        }
+        channel.write(buffers);
+        PooledBuffer.release(data);
     }
 
     public void close() throws IOException {
@@ -45,10 +51,11 @@ public class RandomAccessFileWriter implements IByteBufferWriter {
     }
 
     public void write(byte[] data, int offset, int len) throws IOException {
-        ByteBuffer buf = ByteBufferFactory.allocate(len);
-        buf.put(data, offset, len);
-        buf.flip();
-        channel.write(buf);
+        PooledBuffer buf = ByteBufferFactory.allocate(len);
+        buf.getBuffer().put(data, offset, len);
+        buf.getBuffer().flip();
+        channel.write(buf.getBuffer());
+        buf.release();
     }
 
 }
@@ -0,0 +1,147 @@
+package com.ams.io.buffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference counting shared by the pooled allocators. Every buffer handed
+ * out, and every view derived from it, holds a direct reference to the block
+ * of memory it was carved from; the block counts the references and is
+ * recycled when the last one is released. With leak detection on, buffers
+ * are also tracked, so ones dropped without release are reported and their
+ * references reclaimed when they are garbage collected.
+ */
+public abstract class AbstractByteBufferAllocator implements IByteBufferAllocator {
+	final private Logger logger = LoggerFactory
+	        .getLogger(AbstractByteBufferAllocator.class);
+
+	private boolean leakDetection = false;
+
+	private AtomicLong leakCount = new AtomicLong(0);
+
+	// buffers not yet released, only kept with leak detection on
+	private Set<LeakReference> leaks = ConcurrentHashMap.newKeySet();
+
+	private ReferenceQueue<PooledBuffer> referenceQueue = new ReferenceQueue<PooledBuffer>();
+
+	protected abstract class Block {
+		private AtomicInteger refCount = new AtomicInteger(0);
+
+		public void retain() {
+			refCount.incrementAndGet();
+		}
+
+		public void release() {
+			if (refCount.decrementAndGet() == 0) {
+				recycle();
+			}
+		}
+
+		public PooledBuffer view(ByteBuffer buf) {
+			retain();
+			PooledBuffer view = new PooledBuffer(buf, this);
+			if (leakDetection) {
+				view.leak = new LeakReference(view, this, referenceQueue);
+				leaks.add(view.leak);
+			}
+			return view;
+		}
+
+		void retain(PooledBuffer view) {
+			LeakReference leak = view.leak;
+			if (leak != null) {
+				leak.refCount.incrementAndGet();
+			}
+			retain();
+		}
+
+		void release(PooledBuffer view) {
+			LeakReference leak = view.leak;
+			if (leak != null) {
+				int count = leak.refCount.decrementAndGet();
+				if (count < 0) {
+					logger.warn("buffer released more than retained", new Throwable());
+					return;
+				}
+				if (count == 0) {
+					leaks.remove(leak);
+					leak.clear();
+				}
+			}
+			release();
+		}
+
+		protected abstract void recycle();
+	}
+
+	static class LeakReference extends WeakReference<PooledBuffer> {
+		private final Block block;
+		private final AtomicInteger refCount = new AtomicInteger(1);
+		private final Throwable trace = new Throwable("buffer allocated");
+
+		public LeakReference(PooledBuffer referent, Block block,
+		        ReferenceQueue<PooledBuffer> queue) {
+			super(referent, queue);
+			this.block = block;
+		}
+	}
+
+	private class ByteBufferCollector extends Thread {
+		private void collect(LeakReference ref) {
+			// the buffer was dropped without being released
+			if (leaks.remove(ref)) {
+				leakCount.incrementAndGet();
+				logger.warn("buffer leak detected", ref.trace);
+				for (int i = ref.refCount.getAndSet(0); i > 0; i--) {
+					ref.block.release();
+				}
+			}
+		}
+
+		public ByteBufferCollector() {
+			super("ByteBufferCollector");
+			try {
+				setDaemon(true);
+			} catch (Exception e) {
+			}
+		}
+
+		public void run() {
+			try {
+				while (!Thread.interrupted()) {
+					collect((LeakReference) referenceQueue.remove());
+				}
+			} catch (InterruptedException e) {
+				interrupt();
+			}
+		}
+	}
+
+	protected void startCollector() {
+		if (!leakDetection) {
+			return;
+		}
+		ByteBufferCollector collector = new ByteBufferCollector();
+		collector.start();
+	}
+
+	public void releaseThreadCache() {
+	}
+
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+
+	public void setLeakDetection(boolean leakDetection) {
+		this.leakDetection = leakDetection;
+	}
+
+}
@@ -5,13 +5,19 @@ import java.nio.ByteBuffer;
 public final class ByteBufferFactory {
     private static IByteBufferAllocator allocator = null;
 
-    public static ByteBuffer allocate(int size) {
+    public static PooledBuffer allocate(int size) {
         if (allocator == null) {
-            return ByteBuffer.allocateDirect(size);
+            return PooledBuffer.wrap(ByteBuffer.allocateDirect(size));
         }
         return allocator.allocate(size);
     }
 
+    public static void releaseThreadCache() {
+        if (allocator != null) {
+            allocator.releaseThreadCache();
+        }
+    }
+
     public static void setAllocator(IByteBufferAllocator alloc) {
         allocator = alloc;
     }
@@ -1,111 +1,305 @@
 package com.ams.io.buffer;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * A composite buffer over an array of segments. The absolute start offset of
+ * every segment is kept alongside it, so the total length is known without
+ * walking the segments and random access is a binary search.
+ */
 public class DataBuffer implements IByteBufferReader, IByteBufferWriter {
-    private LinkedList<ByteBuffer> bufferList;
+    private static final int INITIAL_SEGMENTS = 8;
+
+    private PooledBuffer[] segments;
+    private int[] offsets; // absolute start offset of each segment
+    private int head = 0;
+    private int tail = 0;
+    private int start = 0; // absolute offset of the first unread byte
+    private int end = 0; // absolute offset past the last byte
+    private boolean shared = false; // offsets are shared with a duplicate
 
     public DataBuffer() {
-        this.bufferList = new LinkedList<ByteBuffer>();
+        this.segments = new PooledBuffer[INITIAL_SEGMENTS];
+        this.offsets = new int[INITIAL_SEGMENTS];
     }
 
-    public DataBuffer(ByteBuffer[] buffers) {
+    public DataBuffer(PooledBuffer[] buffers) {
         if (buffers == null)
             throw new NullPointerException();
-        this.bufferList = new LinkedList<ByteBuffer>(Arrays.asList(buffers));
+        int capacity = Math.max(buffers.length, INITIAL_SEGMENTS);
+        this.segments = new PooledBuffer[capacity];
+        this.offsets = new int[capacity];
+        write(buffers);
     }
 
-    public DataBuffer(List<ByteBuffer> buffers) {
-        if (buffers == null)
-            throw new NullPointerException();
-        this.bufferList = new LinkedList<ByteBuffer>(buffers);
+    public DataBuffer(List<PooledBuffer> buffers) {
+        this(buffers.toArray(new PooledBuffer[buffers.size()]));
+    }
+
+    private DataBuffer(DataBuffer source, PooledBuffer[] segments) {
+        this.segments = segments;
+        this.offsets = source.offsets;
+        this.head = source.head;
+        this.tail = source.tail;
+        this.start = source.start;
+        this.end = source.end;
+        this.shared = true;
+        source.shared = true;
     }
-    
+
     public boolean hasRemaining() {
-        boolean hasRemaining = false;
-        for (ByteBuffer buf : bufferList) {
-            if (buf.hasRemaining()) {
-                hasRemaining = true;
-                break;
-            }
-        }
-        return hasRemaining;
+        return end > start;
     }
 
     public int remaining() {
-        int remaining = 0;
-        for (ByteBuffer buf : bufferList) {
-            remaining += buf.remaining();
-        }
-        return remaining;
+        return end - start;
     }
 
-    public ByteBuffer[] getBuffers() {
-        return bufferList.toArray(new ByteBuffer[bufferList.size()]);
+    /**
+     * Returns the unread segments. They are still owned by this buffer, so
+     * consuming them directly leaves its cached length stale.
+     */
+    public PooledBuffer[] getBuffers() {
+        PooledBuffer[] buffers = new PooledBuffer[tail - head];
+        System.arraycopy(segments, head, buffers, 0, buffers.length);
+        return buffers;
     }
 
+    /**
+     * Returns a read-only view of the unread data. The view has its own
+     * positions and references, and shares the segment offsets until either
+     * side is written to.
+     */
     public DataBuffer duplicate() {
-        List<ByteBuffer> dupList = new ArrayList<ByteBuffer>();
-        for (ByteBuffer buf : bufferList) {
-            dupList.add(buf.duplicate());
+        PooledBuffer[] dup = new PooledBuffer[segments.length];
+        for (int i = head; i < tail; i++) {
+            dup[i] = segments[i].asReadOnlyBuffer();
         }
-        return new DataBuffer(dupList);
+        return new DataBuffer(this, dup);
     }
-    
-    public byte get(int index) {
-        if (index < 0) {
+
+    public DataBuffer retain() {
+        for (int i = head; i < tail; i++) {
+            segments[i].retain();
+        }
+        return this;
+    }
+
+    public void release() {
+        for (int i = head; i < tail; i++) {
+            segments[i].release();
+        }
+    }
+
+    private int segmentStart(int i) {
+        return i == head ? start : offsets[i];
+    }
+
+    // index of the segment holding the absolute offset
+    private int findSegment(int offset) {
+        int low = head;
+        int high = tail - 1;
+        if (low == high || offset < offsets[low + 1]) {
+            return low;
+        }
+        low++;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void checkIndex(int index, int length) {
+        if (index < 0 || length < 0 || index + length > end - start) {
             throw new IndexOutOfBoundsException();
         }
-        int remain = 0;
-        for (ByteBuffer buf : bufferList) {
-            remain += buf.remaining();
-            if (index < remain) {
-                int pos = buf.position() + index;
-                return buf.get(pos); 
+    }
+
+    public byte get(int index) {
+        checkIndex(index, 1);
+        int offset = start + index;
+        int i = findSegment(offset);
+        ByteBuffer buf = segments[i].getBuffer();
+        return buf.get(buf.position() + offset - segmentStart(i));
+    }
+
+    public void get(int index, byte[] dst, int off, int length) {
+        checkIndex(index, length);
+        if (length == 0)
+            return;
+        int offset = start + index;
+        int i = findSegment(offset);
+        int pos = offset - segmentStart(i);
+        while (length > 0) {
+            ByteBuffer buf = segments[i++].getBuffer().duplicate();
+            buf.position(buf.position() + pos);
+            int n = Math.min(length, buf.remaining());
+            buf.get(dst, off, n);
+            off += n;
+            length -= n;
+            pos = 0;
+        }
+    }
+
+    public int get16Bit(int index) {
+        return (int) getBits(index, 2);
+    }
+
+    public int get24Bit(int index) {
+        return (int) getBits(index, 3);
+    }
+
+    public long get32Bit(int index) {
+        return getBits(index, 4);
+    }
+
+    // big endian value of the bytes at index, which may span segments
+    private long getBits(int index, int bytes) {
+        checkIndex(index, bytes);
+        int offset = start + index;
+        int i = findSegment(offset);
+        ByteBuffer buf = segments[i].getBuffer();
+        int pos = buf.position() + offset - segmentStart(i);
+        int limit = buf.limit();
+        long v = 0;
+        for (int n = 0; n < bytes; n++) {
+            while (pos >= limit) {
+                buf = segments[++i].getBuffer();
+                pos = buf.position();
+                limit = buf.limit();
             }
-            index -= remain;
+            v = (v << 8) | (buf.get(pos++) & 0xFF);
         }
-        throw new IndexOutOfBoundsException();
+        return v;
     }
-    
+
+    /**
+     * Returns read-only views of length bytes at index without consuming
+     * them.
+     */
+    public PooledBuffer[] slice(int index, int length) {
+        checkIndex(index, length);
+        if (length == 0)
+            return new PooledBuffer[0];
+        int offset = start + index;
+        int first = findSegment(offset);
+        int last = findSegment(offset + length - 1);
+        PooledBuffer[] views = new PooledBuffer[last - first + 1];
+        int pos = offset - segmentStart(first);
+        for (int i = 0; i < views.length; i++) {
+            PooledBuffer segment = segments[first + i];
+            ByteBuffer buf = segment.getBuffer();
+            int n = Math.min(length, buf.remaining() - pos);
+            ByteBuffer view = buf.asReadOnlyBuffer();
+            view.limit(buf.position() + pos + n);
+            view.position(buf.position() + pos);
+            views[i] = segment.derive(view.slice());
+            length -= n;
+            pos = 0;
+        }
+        return views;
+    }
+
     public void put(byte[] data) {
         if (data == null) return;
-        ByteBuffer buf = ByteBufferFactory.allocate(data.length);
-        buf.put(data);
-        buf.flip();
-        bufferList.add(buf);
-    }
-    
-    public ByteBuffer[] read(int size) {
-        if (bufferList.isEmpty()) return null;
-        List<ByteBuffer> list = new ArrayList<ByteBuffer>();
+        PooledBuffer buf = ByteBufferFactory.allocate(data.length);
+        buf.getBuffer().put(data);
+        buf.getBuffer().flip();
+        append(buf);
+    }
+
+    public PooledBuffer[] read(int size) {
+        if (head == tail) return null;
+        if (size <= 0) return new PooledBuffer[0];
+        int last = size >= end - start ? tail - 1 : findSegment(start + size - 1);
+        PooledBuffer[] buffers = new PooledBuffer[last - head + 1];
         int length = size;
-        while (length > 0 && !bufferList.isEmpty()) {
-            // read a buffer
-            ByteBuffer buffer = bufferList.peek();
+        for (int i = 0; i < buffers.length; i++) {
+            PooledBuffer buffer = segments[head];
             int remain = buffer.remaining();
             if (length >= remain) {
-                list.add(buffer);
-                bufferList.poll();
+                buffers[i] = buffer;
+                segments[head++] = null;
+                if (head < tail) {
+                    start = offsets[head];
+                } else {
+                    start = end;
+                }
                 length -= remain;
             } else {
-                ByteBuffer buf = BufferUtils.trim(buffer, length);
-                list.add(buf);
+                buffers[i] = BufferUtils.trim(buffer, length);
+                start += length;
                 length = 0;
             }
         }
-        return list.toArray(new ByteBuffer[list.size()]);
+        return buffers;
+    }
+
+    public PooledBuffer peekBuffer() {
+        while (head < tail && !segments[head].hasRemaining()) {
+            dropHead();
+        }
+        return head < tail ? segments[head] : null;
+    }
+
+    public void consume(int size) {
+        start += size;
+        if (!segments[head].hasRemaining()) {
+            dropHead();
+        }
+    }
+
+    private void dropHead() {
+        segments[head].release();
+        segments[head++] = null;
+        start = head < tail ? offsets[head] : end;
     }
 
-    public void write(ByteBuffer[] data) {
+    public void write(PooledBuffer[] data) {
         if (data == null) return;
-        for (ByteBuffer buf : data) {
-            bufferList.add(buf);
+        for (PooledBuffer buf : data) {
+            append(buf);
+        }
+    }
+
+    public void write(PooledBuffer buf) {
+        append(buf);
+    }
+
+    private void append(PooledBuffer buf) {
+        if (tail == segments.length) {
+            ensureCapacity();
+        } else if (shared) {
+            offsets = offsets.clone();
+            shared = false;
+        }
+        segments[tail] = buf;
+        offsets[tail] = end;
+        tail++;
+        end += buf.remaining();
+    }
+
+    private void ensureCapacity() {
+        int count = tail - head;
+        int capacity = segments.length;
+        if (count > capacity / 2) {
+            capacity *= 2;
         }
+        PooledBuffer[] newSegments = new PooledBuffer[capacity];
+        int[] newOffsets = new int[capacity];
+        System.arraycopy(segments, head, newSegments, 0, count);
+        System.arraycopy(offsets, head, newOffsets, 0, count);
+        segments = newSegments;
+        offsets = newOffsets;
+        head = 0;
+        tail = count;
+        shared = false;
     }
 
 }
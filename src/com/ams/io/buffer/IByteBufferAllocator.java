@@ -1,7 +1,8 @@
 package com.ams.io.buffer;
 
-import java.nio.ByteBuffer;
-
 public interface IByteBufferAllocator {
-    ByteBuffer allocate(int size);
+    PooledBuffer allocate(int size);
+
+    // returns the free buffers cached by the calling thread, before it exits
+    void releaseThreadCache();
 }
@@ -1,8 +1,13 @@
 package com.ams.io.buffer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 public interface IByteBufferReader {
-    public ByteBuffer[] read(int size) throws IOException;
+    public PooledBuffer[] read(int size) throws IOException;
+
+    // buffer holding the next unread bytes, null if none is buffered
+    public PooledBuffer peekBuffer();
+
+    // the position of the peeked buffer has been advanced by size bytes
+    public void consume(int size);
 }
@@ -1,8 +1,7 @@
 package com.ams.io.buffer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 public interface IByteBufferWriter {
-    public void write(ByteBuffer[] data) throws IOException;
+    public void write(PooledBuffer[] data) throws IOException;
 }
@@ -0,0 +1,77 @@
+package com.ams.io.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer together with the pooled block its memory was carved from. Views
+ * derived from it reference the same block, so retain and release count on
+ * the block directly. A buffer that is not pooled has no block and its
+ * reference counting does nothing.
+ */
+public final class PooledBuffer {
+    private final ByteBuffer buffer;
+    private final AbstractByteBufferAllocator.Block block;
+    // set while leak detection is on
+    AbstractByteBufferAllocator.LeakReference leak = null;
+
+    PooledBuffer(ByteBuffer buffer, AbstractByteBufferAllocator.Block block) {
+        this.buffer = buffer;
+        this.block = block;
+    }
+
+    public static PooledBuffer wrap(ByteBuffer buffer) {
+        return new PooledBuffer(buffer, null);
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    public PooledBuffer retain() {
+        if (block != null) {
+            block.retain(this);
+        }
+        return this;
+    }
+
+    public void release() {
+        if (block != null) {
+            block.release(this);
+        }
+    }
+
+    public static void release(PooledBuffer[] buffers) {
+        for (PooledBuffer buf : buffers) {
+            buf.release();
+        }
+    }
+
+    public PooledBuffer duplicate() {
+        return derive(buffer.duplicate());
+    }
+
+    public PooledBuffer slice() {
+        return derive(buffer.slice());
+    }
+
+    public PooledBuffer asReadOnlyBuffer() {
+        return derive(buffer.asReadOnlyBuffer());
+    }
+
+    // view shares the memory of this buffer and keeps it from being recycled
+    public PooledBuffer derive(ByteBuffer view) {
+        if (block == null) {
+            return new PooledBuffer(view, null);
+        }
+        return block.view(view);
+    }
+
+}
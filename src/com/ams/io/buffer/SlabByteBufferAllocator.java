@@ -0,0 +1,196 @@
+package com.ams.io.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates buffers from power of two size classes (64 bytes to 64 KB).
+ * Each thread keeps a small magazine of free blocks per size class, refilled
+ * from and spilled to a shared lock-free arena, so allocating and freeing
+ * does not contend on a global lock. A block freed by another thread than
+ * the one it was allocated by goes back to the arena, so blocks handed from
+ * the threads allocating them to a thread freeing them do not gather in the
+ * magazines of the latter.
+ */
+public class SlabByteBufferAllocator extends AbstractByteBufferAllocator {
+	final private Logger logger = LoggerFactory
+	        .getLogger(SlabByteBufferAllocator.class);
+
+	private static final int MIN_BLOCK_SHIFT = 6; // 64B
+	private static final int MAX_BLOCK_SHIFT = 16; // 64K
+	private static final int SLAB_SIZE = 256 * 1024;
+	private static final int MAGAZINE_SIZE = 32;
+
+	private SizeClass[] sizeClasses;
+
+	private int poolSize = 0;
+
+	private ThreadLocal<Magazine[]> magazines = new ThreadLocal<Magazine[]>();
+
+	private class SlabBlock extends Block {
+		private SizeClass sizeClass;
+		private ByteBuffer buffer;
+		// magazines of the allocating thread
+		private Magazine[] owner = null;
+
+		public SlabBlock(SizeClass sizeClass, ByteBuffer buffer) {
+			this.sizeClass = sizeClass;
+			this.buffer = buffer;
+		}
+
+		protected void recycle() {
+			free(this);
+		}
+	}
+
+	private class SizeClass {
+		private int index;
+		private int blockSize;
+		private ConcurrentLinkedQueue<SlabBlock> arena = new ConcurrentLinkedQueue<SlabBlock>();
+
+		public SizeClass(int index, int blockSize) {
+			this.index = index;
+			this.blockSize = blockSize;
+		}
+
+		public SlabBlock take() {
+			SlabBlock block;
+			while ((block = arena.poll()) == null) {
+				grow();
+			}
+			return block;
+		}
+
+		private synchronized void grow() {
+			if (arena.isEmpty()) {
+				addSlab();
+			}
+		}
+
+		private void addSlab() {
+			ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, blockSize));
+			for (int offset = 0; offset + blockSize <= slab.capacity(); offset += blockSize) {
+				slab.limit(offset + blockSize);
+				slab.position(offset);
+				arena.offer(new SlabBlock(this, slab.slice()));
+			}
+			logger.debug("allocate slab of {} byte blocks", blockSize);
+		}
+	}
+
+	private static class Magazine {
+		private SlabBlock[] blocks = new SlabBlock[MAGAZINE_SIZE];
+		private int count = 0;
+	}
+
+	public SlabByteBufferAllocator() {
+		int n = MAX_BLOCK_SHIFT - MIN_BLOCK_SHIFT + 1;
+		sizeClasses = new SizeClass[n];
+		for (int i = 0; i < n; i++) {
+			sizeClasses[i] = new SizeClass(i, 1 << (MIN_BLOCK_SHIFT + i));
+		}
+	}
+
+	public void init() {
+		// spread the preallocated pool evenly over the size classes
+		int classBytes = poolSize / sizeClasses.length;
+		for (SizeClass sizeClass : sizeClasses) {
+			int slabSize = Math.max(SLAB_SIZE, sizeClass.blockSize);
+			for (int i = 0; i < classBytes / slabSize; i++) {
+				sizeClass.addSlab();
+			}
+		}
+		startCollector();
+	}
+
+	private static int sizeClassIndex(int size) {
+		if (size <= (1 << MIN_BLOCK_SHIFT)) {
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return shift - MIN_BLOCK_SHIFT;
+	}
+
+	private Magazine[] getMagazines() {
+		Magazine[] mags = magazines.get();
+		if (mags == null) {
+			mags = new Magazine[sizeClasses.length];
+			for (int i = 0; i < mags.length; i++) {
+				mags[i] = new Magazine();
+			}
+			magazines.set(mags);
+		}
+		return mags;
+	}
+
+	public PooledBuffer allocate(int size) {
+		if (size > (1 << MAX_BLOCK_SHIFT)) {
+			return PooledBuffer.wrap(ByteBuffer.allocateDirect(size));
+		}
+		SizeClass sizeClass = sizeClasses[sizeClassIndex(size)];
+		Magazine[] mags = getMagazines();
+		Magazine magazine = mags[sizeClass.index];
+		if (magazine.count == 0) {
+			refill(sizeClass, magazine);
+		}
+		SlabBlock block = magazine.blocks[--magazine.count];
+		magazine.blocks[magazine.count] = null;
+		block.owner = mags;
+		ByteBuffer buf = block.buffer.duplicate();
+		buf.limit(size);
+		return block.view(buf.slice());
+	}
+
+	private void refill(SizeClass sizeClass, Magazine magazine) {
+		magazine.blocks[magazine.count++] = sizeClass.take();
+		SlabBlock block;
+		while (magazine.count < MAGAZINE_SIZE / 2
+		        && (block = sizeClass.arena.poll()) != null) {
+			magazine.blocks[magazine.count++] = block;
+		}
+	}
+
+	private void free(SlabBlock block) {
+		SizeClass sizeClass = block.sizeClass;
+		// blocks freed by another thread than their owner go to the arena
+		Magazine[] mags = magazines.get();
+		if (mags == null || mags != block.owner) {
+			block.owner = null;
+			sizeClass.arena.offer(block);
+			return;
+		}
+		block.owner = null;
+		Magazine magazine = mags[sizeClass.index];
+		if (magazine.count == MAGAZINE_SIZE) {
+			// spill half of the magazine back to the arena
+			while (magazine.count > MAGAZINE_SIZE / 2) {
+				sizeClass.arena.offer(magazine.blocks[--magazine.count]);
+				magazine.blocks[magazine.count] = null;
+			}
+		}
+		magazine.blocks[magazine.count++] = block;
+	}
+
+	public void releaseThreadCache() {
+		Magazine[] mags = magazines.get();
+		if (mags == null) {
+			return;
+		}
+		magazines.remove();
+		for (int i = 0; i < mags.length; i++) {
+			Magazine magazine = mags[i];
+			while (magazine.count > 0) {
+				sizeClasses[i].arena.offer(magazine.blocks[--magazine.count]);
+				magazine.blocks[magazine.count] = null;
+			}
+		}
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+}
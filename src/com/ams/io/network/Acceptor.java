@@ -20,8 +20,10 @@ public class Acceptor extends NetworkHandler {
     private Selector selector;
     private int dispatcherSize;
     private ArrayList<Dispatcher> dispatchers = new ArrayList<Dispatcher>();
-    private int nextDispatcher = 0;
+    private IDispatcherPlacement placement = new RoundRobinPlacement();
     private IProtocolService protocolService;
+    private boolean reusePort = false;
+    private int idleClass = Connection.IDLE_DEFAULT;
     
     public Acceptor(SocketAddress host, int dispatcherSize, IProtocolService protocolService) {
         super("acceptor:" + host.toString());
@@ -39,6 +41,9 @@ public class Acceptor extends NetworkHandler {
     }
 
     private void closeChannel() {
+        if (serverChannel == null) {
+            return;
+        }
         try {
             serverChannel.close();
             selector.close();
@@ -87,16 +92,14 @@ public class Acceptor extends NetworkHandler {
                     }
 
                     if (dispatchers != null) {
-                        Dispatcher dispatcher = dispatchers.get(nextDispatcher++);
+                        Dispatcher dispatcher = placement.select(dispatchers);
                         // create connection
                         NetworkConnection connection = new NetworkConnection();
                         connection.channel = channel;
                         connection.interestOps = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                        connection.setIdleClass(idleClass);
                         dispatcher.addConnectionToRegister(connection);
                         logger.debug("accept connection: {}", connection);
-                        if (nextDispatcher >= dispatchers.size()) {
-                            nextDispatcher = 0;
-                        }
                     }
                 } catch (Exception e) {
                     key.cancel();
@@ -109,17 +112,42 @@ public class Acceptor extends NetworkHandler {
         this.socketProperties = socketProperties;
     }
     
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public void setPlacement(IDispatcherPlacement placement) {
+        this.placement = placement;
+    }
+
+    // idle class of accepted connections until their protocol handler sets one
+    public void setIdleClass(int idleClass) {
+        this.idleClass = idleClass;
+    }
+
     public SocketAddress getListenAddress() {
         return this.listenAddress;
     }
 
     public void start() {
         try {
+            if (reusePort && !Dispatcher.isReusePortSupported()) {
+                logger.warn("SO_REUSEPORT is not supported, use a single acceptor");
+                reusePort = false;
+            }
             for (int i = 0; i < dispatcherSize; i++) {
                 Dispatcher dispatcher = new Dispatcher(protocolService);
+                dispatcher.setAcceptIdleClass(idleClass);
+                if (reusePort) {
+                    // every dispatcher accepts on its own listening socket
+                    dispatcher.listen(listenAddress, socketProperties);
+                }
                 dispatchers.add(dispatcher);
                 dispatcher.start();
             }
+            if (reusePort) {
+                return;
+            }
             openChannel();
             super.start();
         } catch (IOException e) {
@@ -3,12 +3,13 @@ package com.ams.io.network;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+import com.ams.io.buffer.PooledBuffer;
+
 public class ClientNetworkConnection extends NetworkConnection {
     public static int CONNECT_ERROR_TIMEOUT = 1;
     public static int CONNECT_ERROR = 2;
@@ -50,9 +51,7 @@ public class ClientNetworkConnection extends NetworkConnection {
         }
         if (channel.isConnectionPending()) {
             try {
-                if (selectionKey != null && selectionKey.isValid()) {
-                    selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-                }
+                setWriteInterest(true);
                 return channel.finishConnect();
             } catch (IOException e) {
                 dispatchConnectError(CONNECT_ERROR_TIMEOUT);
@@ -112,7 +111,7 @@ public class ClientNetworkConnection extends NetworkConnection {
                 }
             }
             @Override
-            public void onConnectionDataReceived(NetworkConnection conn, ByteBuffer[] buffers) {
+            public void onConnectionDataReceived(NetworkConnection conn, PooledBuffer[] buffers) {
             }
         };
         try {
@@ -133,7 +132,7 @@ public class ClientNetworkConnection extends NetworkConnection {
     }
     
     @Override
-    public void offerInboundBuffers(final ByteBuffer buffers[]) {
+    public void offerInboundBuffers(final PooledBuffer buffers[]) {
         super.offerInboundBuffers(buffers);
         
         // dispatch event
@@ -4,48 +4,76 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.ams.io.buffer.IByteBufferReader;
 import com.ams.io.buffer.IByteBufferWriter;
 import com.ams.io.buffer.BufferUtils;
+import com.ams.io.buffer.PooledBuffer;
 import com.ams.io.ByteBufferInputStream;
 import com.ams.io.ByteBufferOutputStream;
+import com.ams.util.SpscQueue;
 
 public class Connection implements IByteBufferReader, IByteBufferWriter {
     protected static final int DEFAULT_TIMEOUT_MS = 30000;
-    protected static final int MAX_INBOUND_QUEUE_SIZE = 512;
-    protected static final int MAX_OUTBOUND_QUEUE_SIZE = 512;
-    protected ConcurrentLinkedDeque<ByteBuffer> inboundBufferQueue = new ConcurrentLinkedDeque<ByteBuffer>();
-    protected ConcurrentLinkedDeque<ByteBuffer> outboundBufferQueue = new ConcurrentLinkedDeque<ByteBuffer>();
+    // idle classes, each expires after its own idle timeout
+    public static final int IDLE_DEFAULT = 0;
+    public static final int IDLE_KEEP_ALIVE = 1;
+    public static final int IDLE_HANDSHAKE = 2;
+    public static final int IDLE_SESSION = 3;
+    public static final int IDLE_REPLICATION = 4;
+    private static long inboundHighWatermark = 1024 * 1024;
+    private static long inboundLowWatermark = 256 * 1024;
+    private static long outboundHighWatermark = 1024 * 1024;
+    private static long outboundLowWatermark = 256 * 1024;
+    // filled by the dispatcher thread, drained by the connection handler
+    protected SpscQueue<PooledBuffer> inboundBufferQueue = new SpscQueue<PooledBuffer>();
+    protected volatile Thread readWaiter = null;
+    protected ConcurrentLinkedDeque<PooledBuffer> outboundBufferQueue = new ConcurrentLinkedDeque<PooledBuffer>();
     protected AtomicLong readAvailable = new AtomicLong(0);
-    protected boolean closed = true;
+    protected AtomicLong bytesQueued = new AtomicLong(0);
+    protected AtomicLong bytesWritten = new AtomicLong(0);
+    protected volatile boolean closed = true;
+    // set once the dispatcher stopped writing the channel, later writes are dropped
+    protected volatile boolean released = false;
+    // the reader and the dispatcher each let go of the inbound queue once
+    private AtomicInteger inboundHolders = new AtomicInteger(2);
     protected int readTimeout = DEFAULT_TIMEOUT_MS;
-    protected Stack<ByteBuffer> stack;
+    protected volatile int idleClass = IDLE_DEFAULT;
     protected ByteBufferInputStream inStream;
     protected ByteBufferOutputStream outStream;
+    protected volatile ConnectionReadyListener readyListener = null;
+    protected CopyOnWriteArrayList<ConnectionWritabilityListener> writabilityListeners = new CopyOnWriteArrayList<ConnectionWritabilityListener>();
+    protected AtomicBoolean writable = new AtomicBoolean(true);
+    protected volatile boolean readSuspended = false;
 
     public Connection() {
         this.inStream = new ByteBufferInputStream(this);
         this.outStream = new ByteBufferOutputStream(this);
-        this.stack = new Stack<ByteBuffer>();
     }
 
     public void open() {
         if (!isClosed())
             return;
+        idleClass = IDLE_DEFAULT;
+        released = false;
+        inboundHolders.set(2);
         closed = false;
     }
 
     public void close() {
-        stack.clear();
         closed = true;
         try {
             flush();
         } catch (IOException e) {
         }
+        fireReady();
     }
     
     public void close(boolean keepAlive) {
@@ -56,93 +84,261 @@ public class Connection implements IByteBufferReader, IByteBufferWriter {
         return closed;
     }
     
-    public void clear() {
-        inboundBufferQueue.clear();
-        outboundBufferQueue.clear();
+    /**
+     * Drop what is still queued to write, called by the dispatcher once it
+     * stopped writing the channel. Buffers written afterwards are dropped too.
+     */
+    public void releaseOutbound() {
+        released = true;
+        releaseQueue(outboundBufferQueue);
+        bytesWritten.set(bytesQueued.get());
+        notifyWritable();
+    }
+
+    /**
+     * Called once by the reader when it is done with the connection and once
+     * by the dispatcher when it stopped reading the channel. The last one
+     * drops what was left unread, the queue has a single consumer.
+     */
+    public void releaseInbound() {
+        if (inboundHolders.decrementAndGet() != 0) {
+            return;
+        }
+        PooledBuffer buf;
+        while ((buf = inboundBufferQueue.poll()) != null) {
+            buf.release();
+        }
         readAvailable.set(0);
-        closed = true;
     }
     
+    private void releaseQueue(ConcurrentLinkedDeque<PooledBuffer> queue) {
+        PooledBuffer buf;
+        while ((buf = queue.poll()) != null) {
+            buf.release();
+        }
+    }
+
     public boolean isReadBlocking() {
-      return inboundBufferQueue.size() > MAX_INBOUND_QUEUE_SIZE;
+        return readAvailable.get() > inboundHighWatermark;
     }
-    
+
     public boolean isWriteBlocking() {
-        return outboundBufferQueue.size() > MAX_OUTBOUND_QUEUE_SIZE;
+        return !writable.get();
+    }
+
+    public boolean isWritable() {
+        return writable.get();
+    }
+
+    protected void checkReadable() {
+        if (!readSuspended && isReadBlocking()) {
+            suspendRead();
+            // the reader may have drained the queue before it saw the flag
+            checkReadResumable();
+        }
+    }
+
+    protected void checkReadResumable() {
+        if (readSuspended && readAvailable.get() <= inboundLowWatermark) {
+            resumeRead();
+        }
+    }
+
+    protected void suspendRead() {
+        readSuspended = true;
+    }
+
+    protected void resumeRead() {
+        readSuspended = false;
+    }
+
+    protected void checkWritable() {
+        if (writePending() > outboundHighWatermark && writable.compareAndSet(true, false)) {
+            fireWritabilityChanged(false);
+        }
+    }
+
+    protected void notifyWritable() {
+        // wake up producers when outbound queue drains below low watermark
+        if (!writable.get() && writePending() <= outboundLowWatermark
+                && writable.compareAndSet(false, true)) {
+            fireWritabilityChanged(true);
+            fireReady();
+        }
+    }
+
+    protected void fireWritabilityChanged(boolean writable) {
+        for (ConnectionWritabilityListener listener : writabilityListeners) {
+            listener.onWritabilityChanged(this, writable);
+        }
+    }
+
+    public void addWritabilityListener(ConnectionWritabilityListener listener) {
+        writabilityListeners.addIfAbsent(listener);
+    }
+
+    public void removeWritabilityListener(ConnectionWritabilityListener listener) {
+        writabilityListeners.remove(listener);
+    }
+
+    protected void fireReady() {
+        ConnectionReadyListener listener = readyListener;
+        if (listener != null) {
+            listener.onConnectionReady(this);
+        }
+    }
+
+    public void setReadyListener(ConnectionReadyListener listener) {
+        this.readyListener = listener;
     }
 
     public long readAvailable() {
         return readAvailable.get();
     }
 
-    public void offerInboundBuffers(final ByteBuffer buffers[]) {
-        for (ByteBuffer buffer : buffers) {
+    public long getBytesQueued() {
+        return bytesQueued.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long writePending() {
+        return bytesQueued.get() - bytesWritten.get();
+    }
+
+    public int peek(int offset) {
+        // look ahead without consuming, -1 if not yet received
+        PooledBuffer head = peekBuffer();
+        if (head == null) {
+            return -1;
+        }
+        if (offset < head.remaining()) {
+            ByteBuffer buf = head.getBuffer();
+            return buf.get(buf.position() + offset) & 0xFF;
+        }
+        // only a header split across buffers walks the queue
+        for (PooledBuffer buffer : inboundBufferQueue) {
+            int remain = buffer.remaining();
+            if (offset < remain) {
+                ByteBuffer buf = buffer.getBuffer();
+                return buf.get(buf.position() + offset) & 0xFF;
+            }
+            offset -= remain;
+        }
+        return -1;
+    }
+
+    public void offerInboundBuffers(final PooledBuffer buffers[]) {
+        for (PooledBuffer buffer : buffers) {
             inboundBufferQueue.offer(buffer);
             readAvailable.addAndGet(buffer.remaining());
         }
-        synchronized (inboundBufferQueue) {
-            inboundBufferQueue.notify();
+        checkReadable();
+        // wake up a blocking reader, event driven handlers never wait
+        Thread waiter = readWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
         }
+        fireReady();
     }
 
-    public ByteBuffer[] pollOutboundBuffers() {
-        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
-        ByteBuffer data;
+    public PooledBuffer[] pollOutboundBuffers() {
+        List<PooledBuffer> buffers = new ArrayList<PooledBuffer>();
+        PooledBuffer data;
         while ((data = outboundBufferQueue.poll()) != null) {
             buffers.add(data);
         }
-        return buffers.toArray(new ByteBuffer[buffers.size()]);
+        return buffers.toArray(new PooledBuffer[buffers.size()]);
+    }
+
+    public PooledBuffer peekBuffer() {
+        PooledBuffer buffer;
+        while ((buffer = inboundBufferQueue.peek()) != null && !buffer.hasRemaining()) {
+            inboundBufferQueue.poll().release();
+        }
+        return buffer;
     }
 
-    public ByteBuffer[] read(int size) throws IOException {
-        List<ByteBuffer> list = new ArrayList<ByteBuffer>();
+    public void consume(int size) {
+        PooledBuffer buffer = inboundBufferQueue.peek();
+        if (!buffer.hasRemaining()) {
+            inboundBufferQueue.poll().release();
+        }
+        readAvailable.addAndGet(-size);
+        checkReadResumable();
+    }
+
+    public PooledBuffer[] read(int size) throws IOException {
+        List<PooledBuffer> list = new ArrayList<PooledBuffer>();
         int length = size;
+        long deadline = 0;
         while (length > 0) {
             // read a buffer with blocking
-            ByteBuffer buffer = inboundBufferQueue.peek();
+            PooledBuffer buffer = inboundBufferQueue.peek();
             if (buffer != null) {
                 int remain = buffer.remaining();
 
                 if (length >= remain) {
                     list.add(inboundBufferQueue.poll());
-                    stack.push(buffer);
                     length -= remain;
                     readAvailable.addAndGet(-remain);
                 } else {
-                    ByteBuffer slice = BufferUtils.trim(buffer, length);
+                    PooledBuffer slice = BufferUtils.trim(buffer, length);
                     list.add(slice);
-                    stack.push(slice);
                     readAvailable.addAndGet(-length);
                     length = 0;
                 }
             } else {
                 // wait new buffer append to queue
-                // sleep for timeout ms
-                long start = System.currentTimeMillis();
-                try {
-                    synchronized (inboundBufferQueue) {
-                        inboundBufferQueue.wait(readTimeout);
-                    }
-                } catch (InterruptedException e) {
-                    throw new IOException("read interrupted");
+                // for timeout ms since the last buffer arrived
+                if (deadline == 0) {
+                    deadline = System.nanoTime() + readTimeout * 1000000L;
                 }
-                long now = System.currentTimeMillis();
-                if (now - start >= readTimeout) {
+                awaitInbound(deadline);
+                continue;
+            }
+            deadline = 0;
+        } // end while
+        checkReadResumable();
+        return list.toArray(new PooledBuffer[list.size()]);
+    }
+
+    private void awaitInbound(long deadline) throws IOException {
+        readWaiter = Thread.currentThread();
+        try {
+            while (inboundBufferQueue.isEmpty()) {
+                long timeout = deadline - System.nanoTime();
+                if (timeout <= 0) {
                     throw new IOException("read time out");
                 }
-
+                LockSupport.parkNanos(this, timeout);
+                if (Thread.interrupted()) {
+                    throw new IOException("read interrupted");
+                }
             }
-        } // end while
-        return list.toArray(new ByteBuffer[list.size()]);
+        } finally {
+            readWaiter = null;
+        }
     }
 
-    public void write(ByteBuffer[] data) throws IOException {
+    public void write(PooledBuffer[] data) throws IOException {
         if (data == null) {
             return;
         }
-        for (ByteBuffer buf : data) {
+        long size = 0;
+        for (PooledBuffer buf : data) {
+            size += buf.remaining();
             outboundBufferQueue.offer(buf);
         }
+        bytesQueued.addAndGet(size);
+        if (released) {
+            // closed meanwhile, nobody writes the queue anymore
+            releaseQueue(outboundBufferQueue);
+            return;
+        }
+        checkWritable();
     }
 
     public void flush() throws IOException {
@@ -151,6 +347,30 @@ public class Connection implements IByteBufferReader, IByteBufferWriter {
         }
     }
 
+    public static void setWatermarks(long inboundHigh, long inboundLow,
+            long outboundHigh, long outboundLow) {
+        inboundHighWatermark = inboundHigh;
+        inboundLowWatermark = inboundLow;
+        outboundHighWatermark = outboundHigh;
+        outboundLowWatermark = outboundLow;
+    }
+
+    public int getIdleClass() {
+        return idleClass;
+    }
+
+    public void setIdleClass(int idleClass) {
+        this.idleClass = idleClass;
+    }
+
+    /**
+     * Executor running on the thread that owns this connection's socket,
+     * null if the connection has none.
+     */
+    public ScheduledExecutorService getEventLoop() {
+        return null;
+    }
+
     public void setReadTimeout(int timeout) {
         this.readTimeout = timeout;
     }
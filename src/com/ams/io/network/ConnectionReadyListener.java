@@ -0,0 +1,5 @@
+package com.ams.io.network;
+
+public interface ConnectionReadyListener {
+    public void onConnectionReady(Connection conn);
+}
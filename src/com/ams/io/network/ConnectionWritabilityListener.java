@@ -0,0 +1,5 @@
+package com.ams.io.network;
+
+public interface ConnectionWritabilityListener {
+    public void onWritabilityChanged(Connection conn, boolean writable);
+}
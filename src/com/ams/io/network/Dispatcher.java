@@ -1,10 +1,20 @@
 package com.ams.io.network;
 
 import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,17 +24,58 @@ import com.ams.server.service.IProtocolService;
 public class Dispatcher extends NetworkHandler {
     private final Logger logger = LoggerFactory.getLogger(Dispatcher.class);
 
-    private static final long SELECT_TIMEOUT = 2 * 1000;
-    private long timeExpire =  30 * 60 * 1000;
-    private long lastExpirationTime = 0;
+    private static final long TICK_DURATION = 250;
+    private static final int WHEEL_SIZE = 512;
+    private static final long SELECT_TIMEOUT = TICK_DURATION;
+    private static final long RATE_INTERVAL = 1000;
+    // idle timeout in ms of each connection idle class
+    private static long[] idleTimeouts = {
+        30 * 60 * 1000,     // IDLE_DEFAULT
+        15 * 1000,          // IDLE_KEEP_ALIVE
+        10 * 1000,          // IDLE_HANDSHAKE
+        30 * 60 * 1000,     // IDLE_SESSION
+        30 * 60 * 1000      // IDLE_REPLICATION
+    };
+    private TimingWheel idleWheel = null;
+    private ArrayList<NetworkConnection> expiredConnections = new ArrayList<NetworkConnection>();
+    private TimingWheel.IdleDeadline idleDeadline = new TimingWheel.IdleDeadline() {
+        public boolean isRegistered(NetworkConnection connection) {
+            SelectionKey key = connection.selectionKey;
+            return key != null && key.isValid() && key.selector() == selector;
+        }
+
+        public long getDeadline(NetworkConnection connection) {
+            return connection.getKeepAliveTime() + idleTimeouts[connection.getIdleClass()];
+        }
+    };
     private Selector selector = null;
     private ConcurrentLinkedQueue<NetworkConnection> registerConnectionQueue = null;
     private IProtocolService protocolService = null;
+    private ServerSocketChannel serverChannel = null;
+    private SocketProperties socketProperties = null;
+    private DispatcherExecutor executor = null;
+    private int acceptIdleClass = Connection.IDLE_DEFAULT;
+
+    // load counters read by the acceptor's placement policy
+    private AtomicInteger pendingConnections = new AtomicInteger(0);
+    private volatile int registeredConnections = 0;
+    private AtomicLong bytesIn = new AtomicLong(0);
+    private AtomicLong bytesOut = new AtomicLong(0);
+    private volatile long bytesInRate = 0;
+    private volatile long bytesOutRate = 0;
+    // connections the byte rates were measured over
+    private volatile int sampledConnections = 0;
+    private volatile long loopTime = 0;
+    private long lastRateTime = 0;
+    private long lastBytesIn = 0;
+    private long lastBytesOut = 0;
 
     public Dispatcher() throws IOException {
         super("dispatcher");
         this.selector = Selector.open();
         this.registerConnectionQueue = new ConcurrentLinkedQueue<NetworkConnection>();
+        this.idleWheel = new TimingWheel(WHEEL_SIZE, TICK_DURATION, System.currentTimeMillis());
+        this.executor = new DispatcherExecutor(this);
     }
 
     public Dispatcher(IProtocolService protocolService) throws IOException {
@@ -33,10 +84,63 @@ public class Dispatcher extends NetworkHandler {
     }
     
     public void addConnectionToRegister(NetworkConnection connection) {
+        connection.dispatcher = this;
+        pendingConnections.incrementAndGet();
         registerConnectionQueue.offer(connection);
         selector.wakeup();
     }
 
+    public static boolean isReusePortSupported() {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Accept connections directly on this dispatcher's selector, sharing the
+     * port with the other dispatchers through SO_REUSEPORT. Called before the
+     * dispatcher is started.
+     */
+    public void listen(SocketAddress listenAddress, SocketProperties socketProperties) throws IOException {
+        this.socketProperties = socketProperties;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        serverChannel.bind(listenAddress);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    private void acceptConnections() throws IOException {
+        // drain the accept backlog
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                if (socketProperties != null) {
+                    socketProperties.setSocketProperties(channel.socket());
+                }
+            } catch (IOException e) {
+                channel.close();
+                continue;
+            }
+            NetworkConnection connection = new NetworkConnection();
+            connection.channel = channel;
+            connection.interestOps = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            connection.setIdleClass(acceptIdleClass);
+            connection.dispatcher = this;
+            connection.registerChannel(selector);
+            idleWheel.schedule(connection, idleDeadline.getDeadline(connection));
+            logger.debug("accept connection: {}", connection);
+        }
+    }
+
     public void run() {
         while (isRunning()) {
             // register a new channel
@@ -45,24 +149,43 @@ public class Dispatcher extends NetworkHandler {
             // do select
             doSelect();
 
+            // run handlers of connections owned by this dispatcher
+            executor.runTasks();
+
             // collect idle keys that will not be used
             expireIdleKeys();
+
+            updateLoad();
         }
 
         closeAllKeys();
+        // let handlers see their connections closed
+        executor.runTasks();
+        executor.shutdown();
     }
 
     private void registerConnection() {
         NetworkConnection connection = null;
         while ((connection = registerConnectionQueue.poll()) != null) {
             connection.registerChannel(selector);
+            idleWheel.schedule(connection, idleDeadline.getDeadline(connection));
+            pendingConnections.decrementAndGet();
         }
     }
 
     private void doSelect() {
         int selectedKeys = 0;
         try {
-            selectedKeys = selector.select(SELECT_TIMEOUT);
+            long timeout = TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT);
+            long timerDelay = executor.nextTimerDelay();
+            if (timerDelay >= 0 && timerDelay < timeout) {
+                timeout = timerDelay;
+            }
+            if (executor.hasTasks() || timeout < TimeUnit.MILLISECONDS.toNanos(1)) {
+                selectedKeys = selector.selectNow();
+            } else {
+                selectedKeys = selector.select(TimeUnit.NANOSECONDS.toMillis(timeout));
+            }
         } catch (Exception e) {
             logger.debug("select key error");
             if (selector.isOpen()) {
@@ -73,6 +196,7 @@ public class Dispatcher extends NetworkHandler {
         if (selectedKeys == 0) {
             return;
         }
+        long start = System.nanoTime();
 
         Iterator<SelectionKey> it = selector.selectedKeys().iterator();
         while (it.hasNext()) {
@@ -82,6 +206,14 @@ public class Dispatcher extends NetworkHandler {
             if (!key.isValid()) {
                 continue;
             }
+            if (key.isAcceptable()) {
+                try {
+                    acceptConnections();
+                } catch (IOException e) {
+                    logger.debug("accept error: {}", e.getMessage());
+                }
+                continue;
+            }
             NetworkConnection connection = (NetworkConnection) key.attachment();
             try {
                 if (key.isConnectable() && connection instanceof ClientNetworkConnection) {
@@ -107,8 +239,12 @@ public class Dispatcher extends NetworkHandler {
                 key.cancel();
                 key.attach(null);
                 connection.close();
+                connection.releaseBuffers();
             }
         }
+        // moving average of the time spent handling ready keys
+        long elapsed = System.nanoTime() - start;
+        loopTime += (elapsed - loopTime) / 8;
     }
     
     private void openConnection(NetworkConnection connection) {
@@ -118,31 +254,89 @@ public class Dispatcher extends NetworkHandler {
         }
     }
     
-    private void expireIdleKeys() {
-        // check every timeExpire(30m)
+    private void updateLoad() {
+        registeredConnections = selector.keys().size();
         long now = System.currentTimeMillis();
-        long elapsedTime = now - lastExpirationTime;
-        if (elapsedTime < timeExpire) {
+        long elapsed = now - lastRateTime;
+        if (elapsed < RATE_INTERVAL) {
             return;
         }
-        lastExpirationTime = now;
+        long in = bytesIn.get();
+        long out = bytesOut.get();
+        bytesInRate = (in - lastBytesIn) * 1000 / elapsed;
+        bytesOutRate = (out - lastBytesOut) * 1000 / elapsed;
+        lastBytesIn = in;
+        lastBytesOut = out;
+        lastRateTime = now;
+        sampledConnections = registeredConnections;
+    }
 
-        for (SelectionKey key : selector.keys()) {
-            // Keep-alive expired
-            NetworkConnection connection = (NetworkConnection) key.attachment();
-            if (connection != null) {
-                long keepAliveTime = connection.getKeepAliveTime();
-                if (now - keepAliveTime > timeExpire) {
-                    logger.debug("close expired idle key: {}", connection);
-                    key.cancel();
-                    key.attach(null);
-                    connection.close();
-                }
+    /**
+     * Executor running tasks on this dispatcher's thread.
+     */
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    boolean inDispatcherThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    protected void addBytesIn(long bytes) {
+        bytesIn.addAndGet(bytes);
+    }
+
+    protected void addBytesOut(long bytes) {
+        bytesOut.addAndGet(bytes);
+    }
+
+    public int getConnectionCount() {
+        return registeredConnections + pendingConnections.get();
+    }
+
+    public int getSampledConnectionCount() {
+        return sampledConnections;
+    }
+
+    public long getBytesInRate() {
+        return bytesInRate;
+    }
+
+    public long getBytesOutRate() {
+        return bytesOutRate;
+    }
+
+    public long getLoopTime() {
+        return loopTime;
+    }
+
+    private void expireIdleKeys() {
+        idleWheel.advance(System.currentTimeMillis(), idleDeadline, expiredConnections);
+        for (NetworkConnection connection : expiredConnections) {
+            logger.debug("close expired idle key: {}", connection);
+            SelectionKey key = connection.selectionKey;
+            if (key == null) {
+                // closed by another thread since it was collected
+                continue;
             }
+            key.cancel();
+            key.attach(null);
+            connection.close(false);
         }
+        expiredConnections.clear();
     }
 
     private void closeAllKeys() {
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+            }
+        }
         // close all keys
         for (SelectionKey key : selector.keys()) {
             // Keep-alive expired
@@ -151,12 +345,38 @@ public class Dispatcher extends NetworkHandler {
                 key.cancel();
                 key.attach(null);
                 connection.close();
+                connection.releaseBuffers();
+            }
+        }
+
+    }
+
+    // called when the idle class of a connection of this dispatcher was lowered
+    void rescheduleIdle(final NetworkConnection connection) {
+        Runnable task = new Runnable() {
+            public void run() {
+                idleWheel.reschedule(connection, idleDeadline.getDeadline(connection));
             }
+        };
+        if (inDispatcherThread()) {
+            task.run();
+            return;
         }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+        }
+    }
+
+    public void setAcceptIdleClass(int idleClass) {
+        this.acceptIdleClass = idleClass;
+    }
 
+    public static void setIdleTimeout(int idleClass, long timeout) {
+        idleTimeouts[idleClass] = timeout;
     }
 
-    public void setTimeExpire(long timeExpire) {
-        this.timeExpire = timeExpire;
+    public static long getIdleTimeout(int idleClass) {
+        return idleTimeouts[idleClass];
     }
 }
@@ -0,0 +1,173 @@
+package com.ams.io.network;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.AbstractExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks and timers on a dispatcher's own thread, between selector
+ * loops, so handlers of its connections run where their sockets are read
+ * and written.
+ */
+class DispatcherExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+    private final Logger logger = LoggerFactory.getLogger(DispatcherExecutor.class);
+
+    private static final int MAX_RUN_TASKS = 1024;
+
+    private Dispatcher dispatcher;
+    private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // only touched by the dispatcher thread
+    private PriorityQueue<TimerTask<?>> timers = new PriorityQueue<TimerTask<?>>();
+    private volatile boolean shutdown = false;
+
+    private class TimerTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        private long deadline;
+        // > 0 at a fixed rate, < 0 with a fixed delay, 0 runs once
+        private final long period;
+
+        public TimerTask(Callable<V> callable, long deadline, long period) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        public void run() {
+            if (period == 0) {
+                super.run();
+            } else if (runAndReset() && !shutdown) {
+                deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+                timers.offer(this);
+            }
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            long d = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return d < 0 ? -1 : (d > 0 ? 1 : 0);
+        }
+    }
+
+    public DispatcherExecutor(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("dispatcher is shutdown");
+        }
+        tasks.offer(command);
+        if (!dispatcher.inDispatcherThread()) {
+            dispatcher.wakeup();
+        }
+    }
+
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(Executors.callable(command), delay, unit);
+    }
+
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return schedule(new TimerTask<V>(callable, System.nanoTime() + unit.toNanos(delay), 0));
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(new TimerTask<Object>(Executors.callable(command),
+                System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(period)));
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(new TimerTask<Object>(Executors.callable(command),
+                System.nanoTime() + unit.toNanos(initialDelay), -unit.toNanos(delay)));
+    }
+
+    private <V> ScheduledFuture<V> schedule(final TimerTask<V> timer) {
+        execute(new Runnable() {
+            public void run() {
+                timers.offer(timer);
+            }
+        });
+        return timer;
+    }
+
+    boolean hasTasks() {
+        return !tasks.isEmpty();
+    }
+
+    /**
+     * @return ns until the next timer is due, -1 if there is none
+     */
+    long nextTimerDelay() {
+        TimerTask<?> timer;
+        while ((timer = timers.peek()) != null && timer.isCancelled()) {
+            timers.poll();
+        }
+        return timer == null ? -1 : Math.max(0, timer.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    void runTasks() {
+        Runnable task;
+        for (int i = 0; i < MAX_RUN_TASKS && (task = tasks.poll()) != null; i++) {
+            run(task);
+        }
+        long now = System.nanoTime();
+        TimerTask<?> timer;
+        // a periodic timer behind schedule catches up on later loops
+        for (int i = timers.size(); i > 0 && (timer = timers.peek()) != null
+                && timer.deadline - now <= 0; i--) {
+            timers.poll();
+            run(timer);
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.warn("dispatcher task error", e);
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        tasks.clear();
+        timers.clear();
+        return Collections.emptyList();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return shutdown && tasks.isEmpty();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+}
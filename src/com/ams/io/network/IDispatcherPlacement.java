@@ -0,0 +1,7 @@
+package com.ams.io.network;
+
+import java.util.List;
+
+public interface IDispatcherPlacement {
+    public Dispatcher select(List<Dispatcher> dispatchers);
+}
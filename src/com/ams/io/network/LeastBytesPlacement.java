@@ -0,0 +1,47 @@
+package com.ams.io.network;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Places a new connection on the less loaded of two dispatchers picked at
+ * random, by the bytes per second moved in and out. The rates are sampled
+ * once a second, so connections added since the last sample are counted at
+ * the average rate of their dispatcher's sampled connections; together with
+ * the random pair this keeps a burst of connects from all landing on the
+ * dispatcher that was quietest at the last sample. Ties go to the one with
+ * fewer connections.
+ */
+public class LeastBytesPlacement implements IDispatcherPlacement {
+
+    public Dispatcher select(List<Dispatcher> dispatchers) {
+        int size = dispatchers.size();
+        if (size == 1) {
+            return dispatchers.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(size);
+        int j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+        Dispatcher a = dispatchers.get(i);
+        Dispatcher b = dispatchers.get(j);
+        long loadA = estimateRate(a);
+        long loadB = estimateRate(b);
+        if (loadA != loadB) {
+            return loadA < loadB ? a : b;
+        }
+        return a.getConnectionCount() <= b.getConnectionCount() ? a : b;
+    }
+
+    private static long estimateRate(Dispatcher dispatcher) {
+        long rate = dispatcher.getBytesInRate() + dispatcher.getBytesOutRate();
+        int sampled = dispatcher.getSampledConnectionCount();
+        int added = dispatcher.getConnectionCount() - sampled;
+        if (sampled <= 0 || added <= 0) {
+            return rate;
+        }
+        return rate + rate * added / sampled;
+    }
+}
@@ -0,0 +1,23 @@
+package com.ams.io.network;
+
+import java.util.List;
+
+/**
+ * Places a new connection on the dispatcher with the fewest registered
+ * connections, ties go to the one with the shorter selector loop time.
+ */
+public class LeastConnectionsPlacement implements IDispatcherPlacement {
+
+    public Dispatcher select(List<Dispatcher> dispatchers) {
+        Dispatcher best = null;
+        for (Dispatcher dispatcher : dispatchers) {
+            if (best == null
+                    || dispatcher.getConnectionCount() < best.getConnectionCount()
+                    || (dispatcher.getConnectionCount() == best.getConnectionCount()
+                            && dispatcher.getLoopTime() < best.getLoopTime())) {
+                best = dispatcher;
+            }
+        }
+        return best;
+    }
+}
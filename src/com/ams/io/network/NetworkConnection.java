@@ -4,26 +4,55 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ams.io.buffer.ByteBufferFactory;
+import com.ams.io.buffer.PooledBuffer;
 
 public class NetworkConnection extends Connection {
     private final Logger logger = LoggerFactory.getLogger(NetworkConnection.class);
     
     protected static final int MIN_READ_BUFFER_SIZE = 256;
-    protected static final int MAX_READ_BUFFER_SIZE = 64 * 1024;
+    protected static final int INITIAL_READ_BUFFER_SIZE = 2 * 1024;
+    private static int minReadBufferSize = 512;
+    private static int maxReadBufferSize = 64 * 1024;
+    protected static final int COALESCE_BUFFER_SIZE = 512;
+    protected static final int STAGING_BUFFER_SIZE = 16 * 1024;
+    protected static final int MIN_WRITE_RING_SIZE = 64;
+    protected static final int MAX_WRITE_RING_SIZE = 1024;
 
     protected Selector selector;
+    protected Dispatcher dispatcher = null;
     protected SocketChannel channel = null;
     protected SelectionKey selectionKey;
     protected int interestOps;
 
-    protected ByteBuffer readBuffer = null;
-    protected ByteBuffer[] writeBuffer = null;
-    protected long keepAliveTime;
+    // owned by the dispatcher thread
+    protected PooledBuffer readBuffer = null;
+    // predicted size of the next read, follows the recent read sizes
+    protected int readBufferSize = INITIAL_READ_BUFFER_SIZE;
+    private boolean shrinkReadBuffer = false;
+    // buffers being written, the unwritten ones are [writeHead, writeHead + writeCount)
+    protected ByteBuffer[] writeRing = new ByteBuffer[MIN_WRITE_RING_SIZE];
+    // pooled buffer of each ring entry, null for the staging runs
+    protected PooledBuffer[] writeOwners = new PooledBuffer[MIN_WRITE_RING_SIZE];
+    protected int writeHead = 0;
+    protected int writeCount = 0;
+    protected ByteBuffer stagingBuffer = null;
+    protected ByteBuffer[] stagingViews = new ByteBuffer[8];
+    protected int stagingRuns = 0;
+    protected volatile long keepAliveTime;
+    // tick of the idle wheel slot holding this connection, owned by the dispatcher thread
+    protected long idleTick = 0;
+    protected AtomicBoolean writeRequested = new AtomicBoolean(false);
+    protected boolean writeInterest = false;
+    private final Object interestLock = new Object();
     
     public NetworkConnection() {
         super();
@@ -33,6 +62,7 @@ public class NetworkConnection extends Connection {
     protected void registerChannel(Selector selector) {
         this.selector = selector;
         try {
+            this.writeInterest = (interestOps & SelectionKey.OP_WRITE) != 0;
             this.selectionKey = channel.register(selector, interestOps, this);
             logger.debug("registered connection: {}", this);
         } catch (ClosedChannelException e) {
@@ -41,55 +71,281 @@ public class NetworkConnection extends Connection {
     }
     
     protected void readChannel() throws IOException {
-        if (isReadBlocking()) {
-            return;
-        }
         keepAlive();
-        if (readBuffer == null || readBuffer.remaining() < MIN_READ_BUFFER_SIZE) {
-            readBuffer = ByteBufferFactory.allocate(MAX_READ_BUFFER_SIZE);
+        if (readBuffer == null
+                || readBuffer.remaining() < Math.min(MIN_READ_BUFFER_SIZE, readBufferSize / 2)) {
+            if (readBuffer != null) {
+                readBuffer.release();
+            }
+            readBuffer = ByteBufferFactory.allocate(readBufferSize);
         }
-        int readBytes = channel.read(readBuffer);
+        int readBytes = channel.read(readBuffer.getBuffer());
         if (readBytes > 0) {
-            ByteBuffer slicedBuffer = readBuffer.slice();
-            readBuffer.flip();
-            offerInboundBuffers(new ByteBuffer[] { readBuffer });
+            dispatcher.addBytesIn(readBytes);
+            predictReadSize(readBytes);
+            PooledBuffer slicedBuffer = readBuffer.slice();
+            readBuffer.getBuffer().flip();
+            offerInboundBuffers(new PooledBuffer[] { readBuffer });
+            if (slicedBuffer.remaining() > readBufferSize << 1) {
+                // do not pin a large region for a connection that went quiet
+                slicedBuffer.release();
+                slicedBuffer = null;
+            }
             readBuffer = slicedBuffer;
         } else if (readBytes < 0) {
             throw new EOFException("read channel eof");
         }
     }
 
+    // on the dispatcher thread, once it stopped reading and writing the channel
+    protected void releaseBuffers() {
+        releaseReadBuffer();
+        releaseOutbound();
+        releaseWriteRing();
+        releaseInbound();
+    }
+
+    protected void releaseReadBuffer() {
+        if (readBuffer != null) {
+            readBuffer.release();
+            readBuffer = null;
+        }
+    }
+
+    private void predictReadSize(int readBytes) {
+        if (readBytes >= readBufferSize) {
+            // more may be waiting in the socket
+            readBufferSize = Math.min(readBufferSize << 1, maxReadBufferSize);
+            shrinkReadBuffer = false;
+        } else if (readBytes <= readBufferSize >> 2) {
+            // shrink after two small reads in a row
+            if (shrinkReadBuffer && readBufferSize > minReadBufferSize) {
+                readBufferSize = Math.max(readBufferSize >> 1, minReadBufferSize);
+                shrinkReadBuffer = false;
+            } else {
+                shrinkReadBuffer = true;
+            }
+        } else {
+            shrinkReadBuffer = false;
+        }
+    }
+
+    public static void setReadBufferSize(int min, int max) {
+        minReadBufferSize = min;
+        maxReadBufferSize = max;
+    }
+
     protected synchronized void writeToChannel() throws IOException {
+        if (released) {
+            return;
+        }
+        fillWriteRing();
+        if (writeCount == 0) {
+            // nothing queued, leave the selector alone unless it still waits to write
+            if (writeInterest) {
+                finishWrite();
+            }
+            return;
+        }
         keepAlive();
-        if (writeBuffer == null) {
-            writeBuffer = pollOutboundBuffers();
-        }
-        boolean hasRemaining = false;
-        if (writeBuffer.length > 0) {
-            long len = channel.write(writeBuffer);
-            if (len < 0) {
-                throw new EOFException("write channel error");
+        long len = channel.write(writeRing, writeHead, writeCount);
+        if (len < 0) {
+            throw new EOFException("write channel error");
+        }
+        bytesWritten.addAndGet(len);
+        dispatcher.addBytesOut(len);
+        // advance the write cursor past fully written buffers
+        while (writeCount > 0 && !writeRing[writeHead].hasRemaining()) {
+            releaseWriteOwner(writeHead);
+            writeRing[writeHead++] = null;
+            writeCount--;
+        }
+        if (len > 0) {
+            notifyWritable();
+        }
+        // dispatch to write
+        if (writeCount > 0) {
+            setWriteInterest(true);
+        } else {
+            finishWrite();
+        }
+    }
+
+    private void finishWrite() {
+        writeRequested.set(false);
+        setWriteInterest(false);
+        // buffers offered by other threads while we were writing, their
+        // request may have been cleared above
+        if (!outboundBufferQueue.isEmpty()) {
+            writeRequested.set(true);
+            setWriteInterest(true);
+        }
+    }
+
+    private void fillWriteRing() {
+        if (outboundBufferQueue.isEmpty()) {
+            return;
+        }
+        if (writeCount == 0) {
+            writeHead = 0;
+            stagingRuns = 0;
+            if (stagingBuffer != null) {
+                stagingBuffer.clear();
             }
-            for (ByteBuffer buf : writeBuffer) {
-                if (buf.hasRemaining()) {
-                    hasRemaining = true;
-                }
+        } else if (writeHead > 0) {
+            // move the unwritten buffers to the front of the ring
+            System.arraycopy(writeRing, writeHead, writeRing, 0, writeCount);
+            System.arraycopy(writeOwners, writeHead, writeOwners, 0, writeCount);
+            Arrays.fill(writeRing, writeCount, writeHead + writeCount, null);
+            Arrays.fill(writeOwners, writeCount, writeHead + writeCount, null);
+            writeHead = 0;
+        }
+        PooledBuffer buf;
+        while (writeCount < MAX_WRITE_RING_SIZE && (buf = outboundBufferQueue.poll()) != null) {
+            if (!stage(buf)) {
+                offerWriteRing(buf.getBuffer(), buf);
             }
         }
-        if (!hasRemaining) {
-            writeBuffer = null;
+    }
+
+    private boolean stage(PooledBuffer buf) {
+        // pack runs of small buffers (chunk headers, control messages) into
+        // the staging buffer, large payload slices are written in place
+        int size = buf.remaining();
+        if (size >= COALESCE_BUFFER_SIZE) {
+            return false;
         }
-        // dispatch to write
-        if (selectionKey != null && selectionKey.isValid()) {
-            if (hasRemaining) {
-                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-                selector.wakeup();
-            } else {
-                selectionKey.interestOps(SelectionKey.OP_READ);
+        if (stagingBuffer == null) {
+            stagingBuffer = ByteBuffer.allocateDirect(STAGING_BUFFER_SIZE);
+        }
+        if (size > stagingBuffer.remaining()) {
+            return false;
+        }
+        int start = stagingBuffer.position();
+        stagingBuffer.put(buf.getBuffer());
+        buf.release();
+        ByteBuffer last = writeCount > 0 ? writeRing[writeCount - 1] : null;
+        if (last != null && stagingRuns > 0 && last == stagingViews[stagingRuns - 1]
+                && last.limit() == start) {
+            // extend the run at the tail of the ring
+            last.limit(stagingBuffer.position());
+            return true;
+        }
+        if (stagingRuns == stagingViews.length) {
+            stagingViews = Arrays.copyOf(stagingViews, stagingRuns * 2);
+        }
+        ByteBuffer run = stagingViews[stagingRuns];
+        if (run == null) {
+            run = stagingBuffer.duplicate();
+            stagingViews[stagingRuns] = run;
+        }
+        stagingRuns++;
+        run.limit(stagingBuffer.position());
+        run.position(start);
+        offerWriteRing(run, null);
+        return true;
+    }
+
+    private void offerWriteRing(ByteBuffer buf, PooledBuffer owner) {
+        if (writeCount == writeRing.length) {
+            writeRing = Arrays.copyOf(writeRing, writeRing.length * 2);
+            writeOwners = Arrays.copyOf(writeOwners, writeRing.length);
+        }
+        writeOwners[writeCount] = owner;
+        writeRing[writeCount++] = buf;
+    }
+
+    private void releaseWriteOwner(int i) {
+        if (writeOwners[i] != null) {
+            writeOwners[i].release();
+            writeOwners[i] = null;
+        }
+    }
+
+    private synchronized void releaseWriteRing() {
+        for (int i = writeHead; i < writeHead + writeCount; i++) {
+            releaseWriteOwner(i);
+            writeRing[i] = null;
+        }
+        writeHead = 0;
+        writeCount = 0;
+    }
+
+    protected void requestWrite() {
+        // let the dispatcher write buffers offered by other threads
+        if (writeRequested.compareAndSet(false, true)) {
+            setWriteInterest(true);
+        }
+    }
+
+    protected void setWriteInterest(boolean write) {
+        synchronized (interestLock) {
+            writeInterest = write;
+            updateInterestOps();
+        }
+    }
+
+    @Override
+    protected void suspendRead() {
+        // stop selecting reads until the handler drains the inbound queue
+        synchronized (interestLock) {
+            super.suspendRead();
+            updateInterestOps();
+        }
+    }
+
+    @Override
+    protected void resumeRead() {
+        synchronized (interestLock) {
+            if (readSuspended) {
+                super.resumeRead();
+                updateInterestOps();
             }
         }
     }
 
+    private void updateInterestOps() {
+        SelectionKey key = selectionKey;
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = (readSuspended ? 0 : SelectionKey.OP_READ)
+                | (writeInterest ? SelectionKey.OP_WRITE : 0);
+        try {
+            int oldOps = key.interestOps();
+            if (ops != oldOps) {
+                key.interestOps(ops);
+                if ((ops & ~oldOps) != 0) {
+                    selector.wakeup();
+                }
+            }
+        } catch (CancelledKeyException e) {
+        }
+    }
+
+    @Override
+    public void write(PooledBuffer[] data) throws IOException {
+        super.write(data);
+        requestWrite();
+    }
+
+    @Override
+    public void setIdleClass(int idleClass) {
+        int oldClass = this.idleClass;
+        super.setIdleClass(idleClass);
+        // a shorter timeout has to be rescheduled, a longer one is picked up
+        // when the current deadline comes up
+        Dispatcher d = dispatcher;
+        if (d != null && Dispatcher.getIdleTimeout(idleClass) < Dispatcher.getIdleTimeout(oldClass)) {
+            d.rescheduleIdle(this);
+        }
+    }
+
+    @Override
+    public ScheduledExecutorService getEventLoop() {
+        return dispatcher != null ? dispatcher.getExecutor() : null;
+    }
+
     protected void keepAlive() {
         keepAliveTime = System.currentTimeMillis();
     }
@@ -107,12 +363,28 @@ public class NetworkConnection extends Connection {
     @Override
     public void close(boolean keepAlive) {
         super.close();
-        if (!keepAlive) {
+        if (keepAlive) {
+            setIdleClass(IDLE_KEEP_ALIVE);
+        } else {
             try {
                 if (channel != null) channel.close();
                 selectionKey = null;
             } catch (IOException e) {
             }
+            // the dispatcher may be reading into it or writing from it
+            ScheduledExecutorService eventLoop = getEventLoop();
+            if (eventLoop == null) {
+                releaseBuffers();
+                return;
+            }
+            try {
+                eventLoop.execute(new Runnable() {
+                    public void run() {
+                        releaseBuffers();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+            }
         }
     }
     
@@ -1,10 +1,10 @@
 package com.ams.io.network;
 
-import java.nio.ByteBuffer;
+import com.ams.io.buffer.PooledBuffer;
 
 public interface NetworkConnectionListener {
     public void onConnectionEstablished(NetworkConnection conn);
-    public void onConnectionDataReceived(NetworkConnection conn, ByteBuffer buffers[]);
+    public void onConnectionDataReceived(NetworkConnection conn, PooledBuffer buffers[]);
     public void onConnectionClosed(NetworkConnection conn);
     public void onConnectionError(NetworkConnection conn, int error);
 }
@@ -0,0 +1,14 @@
+package com.ams.io.network;
+
+import java.util.List;
+
+public class RoundRobinPlacement implements IDispatcherPlacement {
+    private int nextDispatcher = 0;
+
+    public Dispatcher select(List<Dispatcher> dispatchers) {
+        if (nextDispatcher >= dispatchers.size()) {
+            nextDispatcher = 0;
+        }
+        return dispatchers.get(nextDispatcher++);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ams.io.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel of connection idle deadlines, owned by one dispatcher
+ * thread. A connection sits in the slot of its deadline; when the slot comes
+ * up the deadline is recomputed from the connection's last activity, so
+ * activity itself never touches the wheel.
+ */
+class TimingWheel {
+    private final long tickDuration;
+    private ArrayList<NetworkConnection>[] slots;
+    private ArrayList<NetworkConnection> spare = new ArrayList<NetworkConnection>();
+    private long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(int size, long tickDuration, long now) {
+        this.tickDuration = tickDuration;
+        this.slots = new ArrayList[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayList<NetworkConnection>();
+        }
+        this.currentTick = now / tickDuration;
+    }
+
+    private long toTick(long deadline) {
+        // round up, a connection is never expired before its deadline
+        return Math.max((deadline + tickDuration - 1) / tickDuration, currentTick + 1);
+    }
+
+    public void schedule(NetworkConnection connection, long deadline) {
+        long tick = toTick(deadline);
+        connection.idleTick = tick;
+        slots[(int) (tick % slots.length)].add(connection);
+    }
+
+    /**
+     * Moves a scheduled connection to an earlier deadline, e.g. when its idle
+     * class was lowered. A later deadline is picked up when its slot comes up.
+     */
+    public void reschedule(NetworkConnection connection, long deadline) {
+        long tick = toTick(deadline);
+        if (connection.idleTick == 0 || tick >= connection.idleTick) {
+            return;
+        }
+        if (slots[(int) (connection.idleTick % slots.length)].remove(connection)) {
+            schedule(connection, deadline);
+        }
+    }
+
+    public void advance(long now, IdleDeadline idleDeadline, List<NetworkConnection> expired) {
+        long targetTick = now / tickDuration;
+        long ticks = Math.min(targetTick - currentTick, slots.length);
+        for (long i = 0; i < ticks; i++) {
+            currentTick++;
+            int index = (int) (currentTick % slots.length);
+            ArrayList<NetworkConnection> slot = slots[index];
+            if (slot.isEmpty()) {
+                continue;
+            }
+            slots[index] = spare;
+            for (NetworkConnection connection : slot) {
+                if (!idleDeadline.isRegistered(connection)) {
+                    continue;
+                }
+                long deadline = idleDeadline.getDeadline(connection);
+                if (deadline <= now) {
+                    expired.add(connection);
+                } else {
+                    schedule(connection, deadline);
+                }
+            }
+            slot.clear();
+            spare = slot;
+        }
+        currentTick = targetTick;
+    }
+
+    interface IdleDeadline {
+        boolean isRegistered(NetworkConnection connection);
+
+        long getDeadline(NetworkConnection connection);
+    }
+}
@@ -6,19 +6,103 @@ import com.ams.protocol.rtmp.message.RtmpMessageAudio;
 import com.ams.protocol.rtmp.message.RtmpMessageData;
 import com.ams.protocol.rtmp.message.RtmpMessageVideo;
 
+/**
+ * A media frame. The codec and frame type fields of the payload are decoded
+ * once when the payload is set, the payload itself is shared by everyone the
+ * frame is fanned out to.
+ */
 public class MediaMessage {
     public static final int MEDIA_AUDIO = 0;
     public static final int MEDIA_VIDEO = 1;
     public static final int MEDIA_META = 2;
 
-    protected int mediaType;
-    protected long timestamp = 0;
+    public static final int CODEC_AVC = 7; // video codec id
+    public static final int CODEC_AAC = 10; // audio sound format
+
+    public static final int FRAME_KEY = 1;
+    public static final int FRAME_INTER = 2;
+    public static final int FRAME_DISPOSABLE_INTER = 3;
+
+    private static final int FLAG_KEYFRAME = 0x01;
+    private static final int FLAG_DISPOSABLE = 0x02;
+    private static final int FLAG_H264 = 0x04;
+    private static final int FLAG_SEQUENCE_HEADER = 0x08;
+
+    protected final int mediaType;
+    protected final long timestamp;
     protected DataBuffer data;
 
+    private int codecId = -1;
+    private int frameType = -1;
+    private int compositionTime = 0;
+    private int flags = 0;
+
     public MediaMessage(int mediaType, long timestamp, DataBuffer data) {
         this.mediaType = mediaType;
         this.timestamp = timestamp;
         this.data = data;
+        decode();
+    }
+
+    protected void decode() {
+        codecId = -1;
+        frameType = -1;
+        compositionTime = 0;
+        flags = 0;
+        if (data == null || !data.hasRemaining())
+            return;
+        int size = data.remaining();
+        int h = data.get(0) & 0xFF;
+        switch (mediaType) {
+        case MEDIA_VIDEO:
+            frameType = h >>> 4;
+            codecId = h & 0x0F;
+            if (frameType == FRAME_KEY) {
+                flags |= FLAG_KEYFRAME;
+            } else if (frameType == FRAME_DISPOSABLE_INTER) {
+                flags |= FLAG_DISPOSABLE;
+            }
+            if (h == 0x17 || h == 0x27) {
+                flags |= FLAG_H264;
+                int packetType = size > 1 ? data.get(1) : -1;
+                if (packetType == 0 && h == 0x17) {
+                    flags |= FLAG_SEQUENCE_HEADER;
+                } else if (packetType == 1 && size >= 5) {
+                    // signed 24 bit composition time offset
+                    compositionTime = (data.get24Bit(2) << 8) >> 8;
+                    if (h == 0x27 && isNonReferenceSlice(size)) {
+                        flags |= FLAG_DISPOSABLE;
+                    }
+                }
+            }
+            break;
+        case MEDIA_AUDIO:
+            codecId = h >>> 4;
+            if (h == 0xAF) {
+                flags |= FLAG_H264;
+                if (size > 1 && data.get(1) == 0) {
+                    flags |= FLAG_SEQUENCE_HEADER;
+                }
+            }
+            break;
+        }
+    }
+
+    // h264 nalus with 4 bytes length, non-reference if nal_ref_idc of the first slice is 0
+    private boolean isNonReferenceSlice(int size) {
+        int offset = 5;
+        while (offset + 4 < size) {
+            int len = (int) data.get32Bit(offset);
+            int nal = data.get(offset + 4) & 0xFF;
+            int type = nal & 0x1F;
+            if (type >= 1 && type <= 5) {
+                return (nal & 0x60) == 0;
+            }
+            if (len <= 0 || len > size)
+                break;
+            offset += 4 + len;
+        }
+        return false;
     }
 
     public int getMediaType() {
@@ -33,10 +117,46 @@ public class MediaMessage {
         return data.duplicate();
     }
 
+    /**
+     * The shared payload, readers must not consume it.
+     */
+    public DataBuffer getPayload() {
+        return data;
+    }
+
+    public MediaMessage retain() {
+        if (data != null) {
+            data.retain();
+        }
+        return this;
+    }
+
+    public void release() {
+        if (data != null) {
+            data.release();
+        }
+    }
+
     public int getDataSize() {
         return data.remaining();
     }
     
+    public int getCodecId() {
+        return codecId;
+    }
+
+    public int getFrameType() {
+        return frameType;
+    }
+
+    public int getCompositionTime() {
+        return compositionTime;
+    }
+
+    public boolean isSequenceHeader() {
+        return (flags & FLAG_SEQUENCE_HEADER) != 0;
+    }
+
     public boolean isAudio() {
         return mediaType == MEDIA_AUDIO;
     }
@@ -50,40 +170,27 @@ public class MediaMessage {
     }
     
     public boolean isVideoKeyframe() {
-        if (mediaType != MEDIA_VIDEO)
-            return false;
-        int h = data.get(0) & 0xFF;
-        return isVideo() && ((h >>> 4) == 1 || h == 0x17);
+        return (flags & FLAG_KEYFRAME) != 0;
+    }
+
+    public boolean isVideoDisposable() {
+        return (flags & FLAG_DISPOSABLE) != 0;
     }
 
     public boolean isH264Video() {
-        if (mediaType != MEDIA_VIDEO)
-            return false;
-        int h = data.get(0) & 0xFF;
-        return h == 0x17 || h == 0x27;
+        return mediaType == MEDIA_VIDEO && (flags & FLAG_H264) != 0;
     }
 
     public boolean isH264Audio() {
-        if (mediaType != MEDIA_AUDIO)
-            return false;
-        int h = data.get(0) & 0xFF;
-        return h == 0xAF;
+        return mediaType == MEDIA_AUDIO && (flags & FLAG_H264) != 0;
     }
 
     public boolean isH264AudioHeader() {
-        if (mediaType != MEDIA_AUDIO)
-            return false;
-        int h1 = data.get(0) & 0xFF;
-        int h2 = data.get(1) & 0xFF;
-        return h1 == 0xAF && h2 == 0x00;
+        return isH264Audio() && isSequenceHeader();
     }
 
     public boolean isH264VideoHeader() {
-        if (mediaType != MEDIA_VIDEO)
-            return false;
-        int h1 = data.get(0) & 0xFF;
-        int h2 = data.get(1) & 0xFF;
-        return h1 == 0x17 && h2 == 0x00;
+        return isH264Video() && isSequenceHeader();
     }
 
     
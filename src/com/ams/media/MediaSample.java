@@ -21,6 +21,7 @@ public class MediaSample extends MediaMessage{
 
     public void setData(DataBuffer data) {
         this.data = data;
+        decode();
     }
     
     public long getOffset() {
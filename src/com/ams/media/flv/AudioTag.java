@@ -21,13 +21,15 @@ public class AudioTag extends MediaSample {
     }
 
     public void getParameters() throws IOException {
-        ByteBufferInputStream bi = new ByteBufferInputStream(getData());
+        DataBuffer data = getData();
+        ByteBufferInputStream bi = new ByteBufferInputStream(data);
         byte b = bi.readByte();
         soundFormat = (b & 0xF0) >>> 4;
         soundRate = (b & 0x0C) >>> 2;
         soundRate = ((b & 0x02) >>> 1) == 0 ? 8 : 16;
         soundType = b & 0x01;
         bi.close();
+        data.release();
     }
 
     public int getSoundFormat() {
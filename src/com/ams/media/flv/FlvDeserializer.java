@@ -2,7 +2,6 @@ package com.ams.media.flv;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -14,6 +13,7 @@ import com.ams.media.IMediaDeserializer;
 import com.ams.media.MediaSample;
 import com.ams.protocol.rtmp.amf.AmfValue;
 import com.ams.io.buffer.ByteBufferFactory;
+import com.ams.io.buffer.PooledBuffer;
 
 public class FlvDeserializer implements IMediaDeserializer {
     private RandomAccessFileReader reader;
@@ -159,7 +159,7 @@ public class FlvDeserializer implements IMediaDeserializer {
         timestamp |= (in.readByte() & 0xFF) << 24; // time stamp extended
 
         int streamId = in.read24Bit(); // 24Bit read
-        ByteBuffer[] data = in.readByteBuffer(dataSize);
+        PooledBuffer[] data = in.readByteBuffer(dataSize);
 
         int previousTagSize = (int) in.read32Bit();
 
@@ -214,18 +214,22 @@ public class FlvDeserializer implements IMediaDeserializer {
         tag.setData(data);
     }
     
+    // the data is only read to parse the parameters
     private void getTagParameter() throws IOException {
         if (firstVideoTag != null) {
             readData(firstVideoTag);
             firstVideoTag.getParameters();
+            firstVideoTag.release();
         }
         if (firstAudioTag != null) {
             readData(firstAudioTag);
             firstAudioTag.getParameters();
+            firstAudioTag.release();
         }
         if (firstMetaTag != null) {
             readData(firstMetaTag);
             firstMetaTag.getParameters();
+            firstMetaTag.release();
         }
     }
 
@@ -301,11 +305,11 @@ public class FlvDeserializer implements IMediaDeserializer {
     public MediaSample videoHeaderData() {
         if (firstVideoTag != null && firstVideoTag.isH264Video()) {
             byte[] data = H264_VIDEO_HEADER;
-            ByteBuffer[] buf = new ByteBuffer[1];
+            PooledBuffer[] buf = new PooledBuffer[1];
             buf[0] = ByteBufferFactory.allocate(5 + data.length);
-            buf[0].put(new byte[] { 0x17, 0x00, 0x00, 0x00, 0x00 });
-            buf[0].put(data);
-            buf[0].flip();
+            buf[0].getBuffer().put(new byte[] { 0x17, 0x00, 0x00, 0x00, 0x00 });
+            buf[0].getBuffer().put(data);
+            buf[0].getBuffer().flip();
             return new MediaSample(MediaSample.MEDIA_VIDEO, 0,
                     new DataBuffer(buf));
         }
@@ -315,11 +319,11 @@ public class FlvDeserializer implements IMediaDeserializer {
     public MediaSample audioHeaderData() {
         if (firstAudioTag != null && firstAudioTag.isH264Audio()) {
             byte[] data = H264_AUDIO_HEADER;
-            ByteBuffer[] buf = new ByteBuffer[1];
+            PooledBuffer[] buf = new PooledBuffer[1];
             buf[0] = ByteBufferFactory.allocate(2 + data.length);
-            buf[0].put(new byte[] { (byte) 0xaf, 0x00 });
-            buf[0].put(data);
-            buf[0].flip();
+            buf[0].getBuffer().put(new byte[] { (byte) 0xaf, 0x00 });
+            buf[0].getBuffer().put(data);
+            buf[0].getBuffer().flip();
             return new MediaSample(MediaSample.MEDIA_AUDIO, 0,
                     new DataBuffer(buf));
         }
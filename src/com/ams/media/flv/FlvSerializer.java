@@ -52,8 +52,8 @@ public class FlvSerializer implements IMediaSerializer {
         out.write24Bit(dataSize); // 24Bit write
         // time stamp
         int timestamp = (int) flvTag.getTimestamp();
-        out.write32Bit(timestamp); // 32Bit write
-        out.writeByte((byte) ((timestamp & 0xFF000000) >>> 24));
+        out.write24Bit(timestamp); // 24Bit write
+        out.writeByte(timestamp >>> 24); // time stamp extended
         // stream ID
         out.write24Bit(0);
         // data
@@ -1,6 +1,5 @@
 package com.ams.media.flv;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 
 import com.ams.io.buffer.DataBuffer;
@@ -23,8 +22,9 @@ public class MetaTag extends MediaSample {
     }
 
     public void getParameters() throws IOException {
-        ByteBufferInputStream bi = new ByteBufferInputStream(getData());
-        Amf0Deserializer amf0 = new Amf0Deserializer(new DataInputStream(bi));
+        DataBuffer data = getData();
+        ByteBufferInputStream bi = new ByteBufferInputStream(data);
+        Amf0Deserializer amf0 = new Amf0Deserializer(bi);
         AmfValue value;
         try {
             value = amf0.read();
@@ -33,6 +33,7 @@ public class MetaTag extends MediaSample {
         } catch (AmfException e) {
             e.printStackTrace();
         }
+        data.release();
     }
 
     public String getEvent() {
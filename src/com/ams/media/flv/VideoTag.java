@@ -18,7 +18,8 @@ public class VideoTag extends MediaSample {
     }
 
     public void getParameters() throws IOException {
-        ByteBufferInputStream bi = new ByteBufferInputStream(getData());
+        DataBuffer data = getData();
+        ByteBufferInputStream bi = new ByteBufferInputStream(data);
         byte b = bi.readByte();
         keyframe = (b >>> 4) == 1;
         codecId = b & 0x0F;
@@ -62,6 +63,7 @@ public class VideoTag extends MediaSample {
             height = videoData[2] << 4 + (videoData[3] & 0xF0) >>> 4;
         }
         bi.close();
+        data.release();
     }
 
     public int getCodecId() {
@@ -4,7 +4,6 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -18,6 +17,7 @@ import com.ams.media.mp4.STSD.VideoSampleDescription;
 import com.ams.protocol.rtmp.amf.AmfValue;
 import com.ams.io.buffer.DataBuffer;
 import com.ams.io.ByteBufferInputStream;
+import com.ams.io.buffer.PooledBuffer;
 import com.ams.io.RandomAccessFileReader;
 
 public class Mp4Deserializer implements IMediaDeserializer {
@@ -82,7 +82,7 @@ public class Mp4Deserializer implements IMediaDeserializer {
         return moov;
     }
 
-    private ByteBuffer[] readSampleData(Mp4Sample sample) throws IOException {
+    private PooledBuffer[] readSampleData(Mp4Sample sample) throws IOException {
         reader.seek(sample.getOffset());
         return reader.read(sample.getSize());
     }
@@ -164,7 +164,7 @@ public class Mp4Deserializer implements IMediaDeserializer {
         DataBuffer buf = new DataBuffer();
         byte type = (byte) (sample.isKeyframe() ? 0x17 : 0x27);
         buf.put(new byte[] { type, 0x01, 0, 0, 0 });
-        ByteBuffer[] data = readSampleData(sample);
+        PooledBuffer[] data = readSampleData(sample);
         buf.write(data);
         return buf;
     }
@@ -172,7 +172,7 @@ public class Mp4Deserializer implements IMediaDeserializer {
     private DataBuffer createAudioTag(Mp4Sample sample) throws IOException {
         DataBuffer buf = new DataBuffer();
         buf.put(new byte[] { (byte) 0xaf, 0x01 });
-        ByteBuffer[] data = readSampleData(sample);
+        PooledBuffer[] data = readSampleData(sample);
         buf.write(data);
         return buf;
     }
@@ -2,11 +2,11 @@ package com.ams.protocol.http;
 
 import java.io.*;
 import java.net.*;
-import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 import com.ams.io.ByteBufferInputStream;
+import com.ams.io.buffer.PooledBuffer;
 
 public class HttpRequest {
     private ByteBufferInputStream in = null;
@@ -15,7 +15,7 @@ public class HttpRequest {
     private String location;
     private String rawGet;
     private String rawPost;
-    private ByteBuffer[] rawPostBodyData = null;
+    private PooledBuffer[] rawPostBodyData = null;
 
     private Map<String, String> headers = new LinkedHashMap<String, String>();
     private Map<String, String> cookies = new LinkedHashMap<String, String>();
@@ -259,7 +259,7 @@ public class HttpRequest {
         return rawPost;
     }
 
-    public ByteBuffer[] getRawPostBodyData() {
+    public PooledBuffer[] getRawPostBodyData() {
         return rawPostBodyData;
     }
 
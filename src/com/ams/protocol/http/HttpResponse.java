@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.TimeZone;
 
 import com.ams.io.buffer.ByteBufferFactory;
+import com.ams.io.buffer.PooledBuffer;
 import com.ams.io.ByteBufferOutputStream;
 
 public class HttpResponse {
@@ -127,7 +128,7 @@ public class HttpResponse {
         print(data + NEWLINE);
     }
 
-    public ByteBuffer writeHeader() throws IOException {
+    public PooledBuffer writeHeader() throws IOException {
         if (headerWrote) {
             return null;
         }
@@ -148,34 +149,34 @@ public class HttpResponse {
 
         // write header to socket channel
         byte[] data = headerBuffer.toString().getBytes("UTF-8");
-        ByteBuffer buffer = ByteBufferFactory.allocate(data.length);
-        buffer.put(data);
-        buffer.flip();
+        PooledBuffer buffer = ByteBufferFactory.allocate(data.length);
+        buffer.getBuffer().put(data);
+        buffer.getBuffer().flip();
         return buffer;
     }
 
     public void flush() throws IOException {
         byte[] body = bodyBuffer.toString().getBytes("UTF-8");
         setHeader(HTTP.HEADER_CONTENT_LENGTH, Long.toString(body.length));
-        ByteBuffer headerBuffer = writeHeader();
+        PooledBuffer headerBuffer = writeHeader();
 
-        ByteBuffer bodyBuffer = ByteBufferFactory.allocate(body.length);
-        bodyBuffer.put(body);
-        bodyBuffer.flip();
+        PooledBuffer bodyBuffer = ByteBufferFactory.allocate(body.length);
+        bodyBuffer.getBuffer().put(body);
+        bodyBuffer.getBuffer().flip();
 
-        ByteBuffer[] buf = { headerBuffer, bodyBuffer };
+        PooledBuffer[] buf = { headerBuffer, bodyBuffer };
         // write to socket
         out.writeByteBuffer(buf);
     }
 
     public void flush(ByteBuffer data) throws IOException {
-        flush(new ByteBuffer[] { data });
+        flush(new PooledBuffer[] { PooledBuffer.wrap(data) });
     }
 
-    public void flush(ByteBuffer[] data) throws IOException {
+    public void flush(PooledBuffer[] data) throws IOException {
         long dataSize = 0;
         // body
-        ByteBuffer[] buf = new ByteBuffer[data.length + 1];
+        PooledBuffer[] buf = new PooledBuffer[data.length + 1];
         for (int i = 0, len = data.length; i < len; i++) {
             buf[i + 1] = data[i];
             dataSize += data[i].remaining();
@@ -184,7 +185,7 @@ public class HttpResponse {
         setHeader(HTTP.HEADER_CONTENT_LENGTH, Long.toString(dataSize));
 
         // header
-        ByteBuffer headerBuffer = writeHeader();
+        PooledBuffer headerBuffer = writeHeader();
         buf[0] = headerBuffer;
 
         // write to socket
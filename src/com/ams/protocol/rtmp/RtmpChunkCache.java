@@ -0,0 +1,90 @@
+package com.ams.protocol.rtmp;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ams.media.MediaMessage;
+import com.ams.protocol.rtmp.message.RtmpMessage;
+
+/**
+ * Chunks of one message being fanned out, keyed by (chunk size, chunk stream
+ * id). Created once per published message and handed to every subscriber
+ * group with it, so the chunks live as long as any group still needs them.
+ */
+public class RtmpChunkCache {
+    private final MediaMessage message;
+    // copied on write, looked up without locking
+    private volatile RtmpChunkedMessage[] chunkedMessages = new RtmpChunkedMessage[0];
+    private AtomicInteger refCount = new AtomicInteger(1);
+
+    public RtmpChunkCache(MediaMessage message) {
+        this.message = message.retain();
+    }
+
+    public MediaMessage getMessage() {
+        return message;
+    }
+
+    public RtmpChunkedMessage get(int chunkStreamId, int chunkSize) throws IOException {
+        RtmpChunkedMessage chunkedMessage = find(chunkedMessages, chunkStreamId, chunkSize);
+        if (chunkedMessage == null) {
+            chunkedMessage = create(chunkStreamId, chunkSize);
+        }
+        // released by the caller once written
+        return chunkedMessage.retain();
+    }
+
+    private synchronized RtmpChunkedMessage create(int chunkStreamId, int chunkSize) throws IOException {
+        RtmpChunkedMessage[] messages = chunkedMessages;
+        RtmpChunkedMessage chunkedMessage = find(messages, chunkStreamId, chunkSize);
+        if (chunkedMessage == null) {
+            chunkedMessage = new RtmpChunkedMessage(chunkStreamId, chunkSize,
+                    getMessageType(message), message.getPayload());
+            RtmpChunkedMessage[] newMessages = new RtmpChunkedMessage[messages.length + 1];
+            System.arraycopy(messages, 0, newMessages, 0, messages.length);
+            newMessages[messages.length] = chunkedMessage;
+            chunkedMessages = newMessages;
+        }
+        return chunkedMessage;
+    }
+
+    private static RtmpChunkedMessage find(RtmpChunkedMessage[] messages, int chunkStreamId, int chunkSize) {
+        for (RtmpChunkedMessage chunkedMessage : messages) {
+            if (chunkedMessage.getChunkSize() == chunkSize
+                    && chunkedMessage.getChunkStreamId() == chunkStreamId) {
+                return chunkedMessage;
+            }
+        }
+        return null;
+    }
+
+    private static int getMessageType(MediaMessage msg) {
+        switch (msg.getMediaType()) {
+        case MediaMessage.MEDIA_AUDIO:
+            return RtmpMessage.MESSAGE_AUDIO;
+        case MediaMessage.MEDIA_VIDEO:
+            return RtmpMessage.MESSAGE_VIDEO;
+        default:
+            return RtmpMessage.MESSAGE_AMF0_DATA;
+        }
+    }
+
+    public RtmpChunkCache retain() {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            RtmpChunkedMessage[] messages;
+            synchronized (this) {
+                messages = chunkedMessages;
+                chunkedMessages = new RtmpChunkedMessage[0];
+            }
+            for (RtmpChunkedMessage chunkedMessage : messages) {
+                chunkedMessage.release();
+            }
+            message.release();
+        }
+    }
+}
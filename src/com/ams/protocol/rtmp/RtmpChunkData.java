@@ -4,24 +4,42 @@ import java.io.IOException;
 import com.ams.io.buffer.DataBuffer;
 import com.ams.io.ByteBufferInputStream;
 
+/**
+ * Assembly state of one chunk stream, reused for every message on it.
+ */
 class RtmpChunkData {
-    private DataBuffer data = new DataBuffer();
+    private DataBuffer data = null;
     private int length;
     private int remainBytes;
 
-    public RtmpChunkData(RtmpHeader header) {
+    public void start(RtmpHeader header) {
+        this.data = new DataBuffer();
         this.length = header.getSize();
         this.remainBytes = length;
     }
 
+    public boolean isAssembling() {
+        return data != null;
+    }
+
     public void readChunk(ByteBufferInputStream in, int chunkSize) throws IOException {
         if (chunkSize <= 0) return;
-        data.write(in.readByteBuffer(chunkSize));
+        // slices of the inbound buffers, no copy
+        in.readByteBuffer(data, chunkSize);
         remainBytes -= chunkSize;
     }
 
-    public DataBuffer getData() {
-        return data;
+    public DataBuffer finish() {
+        DataBuffer assembled = data;
+        data = null;
+        return assembled;
+    }
+
+    public void release() {
+        if (data != null) {
+            data.release();
+            data = null;
+        }
     }
 
     public int getLength() {
@@ -0,0 +1,95 @@
+package com.ams.protocol.rtmp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ams.io.ByteBufferOutputStream;
+import com.ams.io.buffer.DataBuffer;
+import com.ams.io.buffer.PooledBuffer;
+
+/**
+ * A message body already split into chunks of one chunk stream, shared by
+ * all connections using the same chunk size. Only the first chunk header is
+ * written per connection.
+ */
+public class RtmpChunkedMessage {
+    private int chunkStreamId;
+    private int chunkSize;
+    private int type;
+    private int size;
+    private PooledBuffer[] chunks;
+    private PooledBuffer[] header;
+    private ArrayList<PooledBuffer> payload = new ArrayList<PooledBuffer>();
+    private AtomicInteger refCount = new AtomicInteger(1);
+
+    public RtmpChunkedMessage(int chunkStreamId, int chunkSize, int type, DataBuffer data) throws IOException {
+        this.chunkStreamId = chunkStreamId;
+        this.chunkSize = chunkSize;
+        this.type = type;
+        this.size = data.remaining();
+
+        // type 3 header of the continuation chunks
+        DataBuffer headerData = new DataBuffer();
+        ByteBufferOutputStream bos = new ByteBufferOutputStream(headerData);
+        new RtmpHeaderSerializer(bos).write(new RtmpHeader(chunkStreamId, -1, -1, -1, -1));
+        bos.flush();
+        this.header = headerData.getBuffers();
+
+        // views of the shared payload, which is left unconsumed
+        ArrayList<PooledBuffer> list = new ArrayList<PooledBuffer>();
+        int offset = 0;
+        while (offset < size) {
+            if (offset > 0) {
+                for (PooledBuffer buf : header) {
+                    list.add(buf);
+                }
+            }
+            int bytes = Math.min(chunkSize, size - offset);
+            for (PooledBuffer buf : data.slice(offset, bytes)) {
+                list.add(buf);
+                payload.add(buf);
+            }
+            offset += bytes;
+        }
+        this.chunks = list.toArray(new PooledBuffer[list.size()]);
+    }
+
+    public PooledBuffer[] getChunks() {
+        PooledBuffer[] buffers = new PooledBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            buffers[i] = chunks[i].asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    public RtmpChunkedMessage retain() {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            PooledBuffer.release(header);
+            for (PooledBuffer buf : payload) {
+                buf.release();
+            }
+        }
+    }
+
+    public int getChunkStreamId() {
+        return chunkStreamId;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
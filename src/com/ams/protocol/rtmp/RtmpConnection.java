@@ -2,19 +2,23 @@ package com.ams.protocol.rtmp;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeSet;
 
 import com.ams.io.ByteBufferInputStream;
 import com.ams.io.ByteBufferOutputStream;
 import com.ams.io.network.Connection;
+import com.ams.media.MediaMessage;
 import com.ams.protocol.rtmp.message.RtmpMessage;
 import com.ams.protocol.rtmp.message.RtmpMessageAudio;
+import com.ams.protocol.rtmp.message.RtmpMessageData;
 import com.ams.protocol.rtmp.message.RtmpMessageVideo;
 
 public class RtmpConnection {
     private static int CHUNK_STREAM_ID_PROTOCOL_CONTROL = 2;
     private static int CHUNK_STREAM_ID_DEFAULT          = 3;
-    private static int CHUNK_STREAM_ID_VIDEO            = 5;
-    private static int CHUNK_STREAM_ID_AUDIO            = 6;
+    private static int CHUNK_STREAM_ID_FIRST_ALLOCATED  = 4;
+    private static int[] CHUNK_HEADER_SIZE = { 11, 7, 3, 0 };
 	
     private Connection conn;
     private ByteBufferInputStream in;
@@ -29,6 +33,13 @@ public class RtmpConnection {
     private RtmpHeaderDeserializer headerDeserializer;
     private RtmpMessageDeserializer messageDeserializer;
 
+    // chunk stream ids of (stream id, media type)
+    private HashMap<Integer, Integer> chunkStreamIdMap = new HashMap<Integer, Integer>();
+    private TreeSet<Integer> freeChunkStreamIds = new TreeSet<Integer>();
+    private int nextChunkStreamId = CHUNK_STREAM_ID_FIRST_ALLOCATED;
+    // closed streams, late media messages of them get no chunk stream id
+    private HashSet<Integer> closedStreamIds = new HashSet<Integer>();
+
     private RtmpHeader currentHeader = null;
     private RtmpMessage currentMessage = null;
 
@@ -38,22 +49,66 @@ public class RtmpConnection {
         this.out = conn.getOutputStream();
         this.headerSerializer = new RtmpHeaderSerializer(out);
         this.chunkHeaderMap = new HashMap<Integer, RtmpHeader>();
-        this.headerDeserializer = new RtmpHeaderDeserializer(in, chunkHeaderMap);
-        this.messageSerializer = new RtmpMessageSerializer(out,headerSerializer);
         this.chunkDataMap = new HashMap<Integer, RtmpChunkData>();
+        this.headerDeserializer = new RtmpHeaderDeserializer(in, chunkHeaderMap, chunkDataMap);
+        this.messageSerializer = new RtmpMessageSerializer(out,headerSerializer);
         this.messageDeserializer = new RtmpMessageDeserializer(in, chunkDataMap);
     }
 
-    public synchronized boolean readRtmpMessage() throws IOException, RtmpException {
-        if (conn.readAvailable() == 0) {
+    private boolean isChunkAvailable() {
+        long available = conn.readAvailable();
+        if (available < 1) {
+            return false;
+        }
+        int h = conn.peek(0);
+        int fmt = h >>> 6;
+        int chunkStreamId = h & 0x3F;
+        int offset = 1;
+        if (chunkStreamId == 0) { // 2 byte version
+            if (available < 2) return false;
+            chunkStreamId = conn.peek(1) + 64;
+            offset = 2;
+        } else if (chunkStreamId == 1) { // 3 byte version
+            if (available < 3) return false;
+            chunkStreamId = (conn.peek(1) | conn.peek(2) << 8) + 64;
+            offset = 3;
+        }
+        int headerSize = offset + CHUNK_HEADER_SIZE[fmt];
+        if (available < headerSize) {
             return false;
         }
+        if (fmt != 3) {
+            int ts = conn.peek(offset) << 16 | conn.peek(offset + 1) << 8 | conn.peek(offset + 2);
+            if (ts >= 0x00FFFFFF) {
+                headerSize += 4; // extended time stamp
+            }
+        }
 
+        // bytes of this chunk
+        int remain;
+        RtmpChunkData chunkData = chunkDataMap.get(chunkStreamId);
+        if (chunkData != null && chunkData.isAssembling()) {
+            remain = chunkData.getRemainBytes();
+        } else if (fmt == 0 || fmt == 1) {
+            remain = conn.peek(offset + 3) << 16 | conn.peek(offset + 4) << 8 | conn.peek(offset + 5);
+        } else {
+            RtmpHeader lastHeader = chunkHeaderMap.get(chunkStreamId);
+            remain = lastHeader != null ? lastHeader.getSize() : 0;
+        }
+        int chunkSize = Math.min(remain, messageDeserializer.getReadChunkSize());
+        return available >= headerSize + chunkSize;
+    }
+
+    public synchronized boolean readRtmpMessage() throws IOException, RtmpException {
         if (currentHeader != null && currentMessage != null) {
             // read new chunk
             currentHeader = null;
             currentMessage = null;
         }
+        // never block on a partial chunk
+        if (!isChunkAvailable()) {
+            return false;
+        }
         // read header every time, a message maybe break into several chunks
         if (currentHeader == null) {
             currentHeader = headerDeserializer.read();
@@ -79,21 +134,88 @@ public class RtmpConnection {
         }
     }
 
+    private int getChunkStreamId(int streamId, int mediaType) {
+        if (closedStreamIds.contains(streamId)) {
+            return -1;
+        }
+        int key = streamId << 2 | mediaType;
+        Integer chunkStreamId = chunkStreamIdMap.get(key);
+        if (chunkStreamId == null) {
+            if (freeChunkStreamIds.isEmpty()) {
+                chunkStreamId = nextChunkStreamId++;
+            } else {
+                chunkStreamId = freeChunkStreamIds.pollFirst();
+            }
+            chunkStreamIdMap.put(key, chunkStreamId);
+        }
+        return chunkStreamId;
+    }
+
+    public synchronized void openChunkStreams(int streamId) {
+        closedStreamIds.remove(streamId);
+    }
+
+    /**
+     * Free the chunk stream ids of a closed stream. Its media messages still
+     * fanned out are dropped, until a stream is created with the same id.
+     */
+    public synchronized void releaseChunkStreams(int streamId) {
+        closedStreamIds.add(streamId);
+        int[] mediaTypes = { MediaMessage.MEDIA_AUDIO, MediaMessage.MEDIA_VIDEO, MediaMessage.MEDIA_META };
+        for (int mediaType : mediaTypes) {
+            Integer chunkStreamId = chunkStreamIdMap.remove(streamId << 2 | mediaType);
+            if (chunkStreamId != null) {
+                freeChunkStreamIds.add(chunkStreamId);
+            }
+        }
+    }
+
     public synchronized void writeRtmpMessage(int streamId, long timestamp, RtmpMessage message) throws IOException {
+        int chunkStreamId = CHUNK_STREAM_ID_DEFAULT;
         if (message instanceof RtmpMessageVideo) {
-            messageSerializer.write(CHUNK_STREAM_ID_VIDEO, streamId, timestamp, message);
+            chunkStreamId = getChunkStreamId(streamId, MediaMessage.MEDIA_VIDEO);
         } else if (message instanceof RtmpMessageAudio) {
-            messageSerializer.write(CHUNK_STREAM_ID_AUDIO, streamId, timestamp, message);
-        } else {
-            messageSerializer.write(CHUNK_STREAM_ID_DEFAULT, streamId, timestamp, message);
+            chunkStreamId = getChunkStreamId(streamId, MediaMessage.MEDIA_AUDIO);
+        } else if (message instanceof RtmpMessageData) {
+            chunkStreamId = getChunkStreamId(streamId, MediaMessage.MEDIA_META);
+        }
+        if (chunkStreamId < 0) {
+            return;
         }
+        messageSerializer.write(chunkStreamId, streamId, timestamp, message);
     }
     
+    public synchronized void writeMediaMessage(int streamId, long timestamp,
+            RtmpChunkCache chunkCache) throws IOException {
+        int chunkStreamId = getChunkStreamId(streamId, chunkCache.getMessage().getMediaType());
+        if (chunkStreamId < 0) {
+            return;
+        }
+        RtmpChunkedMessage chunkedMessage = chunkCache.get(chunkStreamId,
+                messageSerializer.getWriteChunkSize());
+        try {
+            messageSerializer.write(streamId, timestamp, chunkedMessage);
+        } finally {
+            chunkedMessage.release();
+        }
+    }
+
     public synchronized void writeProtocolControlMessage(RtmpMessage message)
             throws IOException {
         messageSerializer.write(CHUNK_STREAM_ID_PROTOCOL_CONTROL, 0, 0, message);
     }
 
+    public synchronized void close() {
+        conn.close();
+    }
+
+    // drops the messages still being assembled, once nothing is read anymore
+    public synchronized void releaseChunkData() {
+        for (RtmpChunkData chunkData : chunkDataMap.values()) {
+            chunkData.release();
+        }
+    }
+
     public Connection getConnection() {
         return conn;
     }
@@ -6,6 +6,7 @@ public class RtmpHeader {
     private int size;
     private int type;
     private int streamId;
+    private long timestampDelta = -1;
 
     public RtmpHeader(int chunkStreamId, long timestamp, int size, int type,
             int streamId) {
@@ -56,6 +57,14 @@ public class RtmpHeader {
         this.timestamp = timestamp;
     }
 
+    public long getTimestampDelta() {
+        return timestampDelta;
+    }
+
+    protected void setTimestampDelta(long timestampDelta) {
+        this.timestampDelta = timestampDelta;
+    }
+
     public String toString() {
         return chunkStreamId + ":" + timestamp + ":" + size + ":" + type + ":"
                 + streamId;
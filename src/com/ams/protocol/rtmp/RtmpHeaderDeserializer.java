@@ -7,11 +7,14 @@ import com.ams.io.ByteBufferInputStream;
 
 public class RtmpHeaderDeserializer {
     private Map<Integer, RtmpHeader> chunkHeaderMap;
+    private Map<Integer, RtmpChunkData> chunkDataMap;
     private ByteBufferInputStream in;
 
-    public RtmpHeaderDeserializer(ByteBufferInputStream in, Map<Integer, RtmpHeader> chunkHeaderMap) {
+    public RtmpHeaderDeserializer(ByteBufferInputStream in, Map<Integer, RtmpHeader> chunkHeaderMap,
+            Map<Integer, RtmpChunkData> chunkDataMap) {
         this.in = in;
         this.chunkHeaderMap = chunkHeaderMap;
+        this.chunkDataMap = chunkDataMap;
     }
 
     private RtmpHeader getLastHeader(int chunkStreamId) {
@@ -27,7 +30,7 @@ public class RtmpHeaderDeserializer {
         int h = in.readByte() & 0xFF; // Chunk Basic Header
         int chunkStreamId = h & 0x3F; // 1 byte version
         if (chunkStreamId == 0) { // 2 byte version
-            chunkStreamId = in.readByte() & 0xFF + 64;
+            chunkStreamId = (in.readByte() & 0xFF) + 64;
         } else if (chunkStreamId == 1) { // 3 byte version
             chunkStreamId = in.read16BitLittleEndian() + 64;
         }
@@ -35,14 +38,8 @@ public class RtmpHeaderDeserializer {
         RtmpHeader lastHeader = getLastHeader(chunkStreamId);
         int fmt = h >>> 6;
         long ts = 0;
-        if (fmt == 0) { // type 0 header
-            ts = in.read24Bit();
-            lastHeader.setTimestamp(ts); // absolute timestamp
-        }
-        long lastTimestamp = lastHeader.getTimestamp();
-        if (fmt == 1 || fmt == 2) { // type 1, type 2 header
+        if (fmt == 0 || fmt == 1 || fmt == 2) { // type 0, type 1, type 2 header
             ts = in.read24Bit();
-            lastHeader.setTimestamp(lastTimestamp + ts); // delta timestamp
         }
         if (fmt == 0 || fmt == 1) { // type 0, type 1 header
             int size = in.read24Bit();
@@ -53,18 +50,28 @@ public class RtmpHeaderDeserializer {
             int streamId = (int) in.read32BitLittleEndian();
             lastHeader.setStreamId(streamId);
         }
-        if (fmt == 3) { // type 3
-            // 0 bytes
-        }
-
         // extended time stamp
-        if (fmt == 0 && ts >= 0x00FFFFFF) {
+        if (fmt != 3 && ts >= 0x00FFFFFF) {
             ts = in.read32Bit();
-            lastHeader.setTimestamp(ts);
         }
-        if ((fmt == 1 || fmt == 2) && ts >= 0x00FFFFFF) {
-            ts = in.read32Bit();
-            lastHeader.setTimestamp(lastTimestamp + ts);
+
+        // the delta is kept apart from the absolute timestamp, a type 0
+        // header carries no delta
+        if (fmt == 0) {
+            lastHeader.setTimestamp(ts);
+            lastHeader.setTimestampDelta(0);
+        } else if (fmt == 1 || fmt == 2) {
+            lastHeader.setTimestamp(lastHeader.getTimestamp() + ts);
+            lastHeader.setTimestampDelta(ts);
+        } else {
+            // type 3, a new message reuses the last delta, as librtmp writes
+            // it: right after a type 0 header only for the same timestamp.
+            // The continuation chunks of a message keep its timestamp.
+            long delta = lastHeader.getTimestampDelta();
+            RtmpChunkData chunkData = chunkDataMap.get(chunkStreamId);
+            if (delta > 0 && (chunkData == null || !chunkData.isAssembling())) {
+                lastHeader.setTimestamp(lastHeader.getTimestamp() + delta);
+            }
         }
 
         return lastHeader;
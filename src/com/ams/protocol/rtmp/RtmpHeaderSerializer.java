@@ -1,17 +1,53 @@
 package com.ams.protocol.rtmp;
 
 import java.io.IOException;
+import java.util.HashMap;
 
 import com.ams.io.ByteBufferOutputStream;
 
 public class RtmpHeaderSerializer {
     private ByteBufferOutputStream out;
+    private HashMap<Integer, RtmpHeader> chunkHeaderMap = new HashMap<Integer, RtmpHeader>();
 
     public RtmpHeaderSerializer(ByteBufferOutputStream out) {
         super();
         this.out = out;
     }
 
+    private int compress(RtmpHeader header) {
+        // choose the smallest format from the last header on this chunk stream
+        int chunkStreamId = header.getChunkStreamId();
+        long timestamp = header.getTimestamp();
+        RtmpHeader lastHeader = chunkHeaderMap.get(chunkStreamId);
+        int fmt;
+        long delta = -1;
+        if (lastHeader == null) {
+            fmt = 0;
+            lastHeader = new RtmpHeader(chunkStreamId, 0, 0, 0, 0);
+            chunkHeaderMap.put(chunkStreamId, lastHeader);
+        } else {
+            delta = timestamp - lastHeader.getTimestamp();
+            if (header.getStreamId() != lastHeader.getStreamId() || delta < 0) {
+                fmt = 0;
+            } else if (header.getSize() != lastHeader.getSize()
+                    || header.getType() != lastHeader.getType()) {
+                fmt = 1;
+            } else if (delta != lastHeader.getTimestampDelta() || delta >= 0x00FFFFFF) {
+                fmt = 2;
+            } else {
+                fmt = 3;
+            }
+        }
+        lastHeader.setTimestamp(timestamp);
+        lastHeader.setSize(header.getSize());
+        lastHeader.setType(header.getType());
+        lastHeader.setStreamId(header.getStreamId());
+        // a type 3 header never follows a type 0 header, peers disagree on
+        // the delta it implies (none for librtmp, the timestamp for ffmpeg)
+        lastHeader.setTimestampDelta(fmt == 0 ? -1 : delta);
+        return fmt;
+    }
+
     public void write(RtmpHeader header) throws IOException {
         int fmt;
         long timestamp = header.getTimestamp();
@@ -19,9 +55,12 @@ public class RtmpHeaderSerializer {
         int type = header.getType();
         int streamId = header.getStreamId();
 
-        if (timestamp != -1 && size != -1 && type != -1 && streamId != -1)
-            fmt = 0;
-        else if (timestamp != -1 && size != -1 && type != -1)
+        if (timestamp != -1 && size != -1 && type != -1 && streamId != -1) {
+            fmt = compress(header);
+            if (fmt != 0) {
+                timestamp = chunkHeaderMap.get(header.getChunkStreamId()).getTimestampDelta();
+            }
+        } else if (timestamp != -1 && size != -1 && type != -1)
             fmt = 1;
         else if (timestamp != -1)
             fmt = 2;
@@ -46,8 +85,9 @@ public class RtmpHeaderSerializer {
 
         if (fmt == 0 || fmt == 1 || fmt == 2) { // type 0, type 1, type 2 header
             if (timestamp >= 0x00FFFFFF)
-                timestamp = 0x00FFFFFF; // send extended time stamp
-            out.write24Bit((int) timestamp);
+                out.write24Bit(0x00FFFFFF); // send extended time stamp
+            else
+                out.write24Bit((int) timestamp);
         }
         if (fmt == 0 || fmt == 1) { // type 0, type 1 header
             out.write24Bit(size);
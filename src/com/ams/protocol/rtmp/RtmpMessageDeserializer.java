@@ -1,6 +1,5 @@
 package com.ams.protocol.rtmp;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
@@ -29,6 +28,9 @@ public class RtmpMessageDeserializer {
     private int readChunkSize = 128;
     private Map<Integer, RtmpChunkData> chunkDataMap;
     private ByteBufferInputStream in;
+    private ArrayList<AmfValue> args = new ArrayList<AmfValue>();
+    private Amf0Deserializer amf0Deserializer = new Amf0Deserializer(null);
+    private Amf3Deserializer amf3Deserializer = null;
 
     public RtmpMessageDeserializer(ByteBufferInputStream in, Map<Integer, RtmpChunkData> chunkDataMap) {
         this.in = in;
@@ -39,9 +41,12 @@ public class RtmpMessageDeserializer {
         int chunkStreamId = header.getChunkStreamId();
         RtmpChunkData chunkData = chunkDataMap.get(chunkStreamId);
         if (chunkData == null) {
-            chunkData = new RtmpChunkData(header);
+            chunkData = new RtmpChunkData();
             chunkDataMap.put(chunkStreamId, chunkData);
         }
+        if (!chunkData.isAssembling()) {
+            chunkData.start(header);
+        }
         int remain = chunkData.getRemainBytes();
         if (remain > readChunkSize) {
             // continue to read a chunk
@@ -50,18 +55,39 @@ public class RtmpMessageDeserializer {
         }
         chunkData.readChunk(in, remain);
         // read all chunk data of one message
-        chunkDataMap.remove(chunkStreamId);
+        DataBuffer data = chunkData.finish();
         RtmpMessage message = null;
         try {
-            message = parseChunkData(header, chunkData);
+            message = parseChunkData(header, data);
         } catch(AmfException e) {
             throw new RtmpException("Invalid Rtmp Message");
+        } finally {
+            // unless handed over, the payload is parsed and what is left unread dropped
+            if (!ownsPayload(message)) {
+                data.release();
+            }
         }
         return message;
     }
 
-    private RtmpMessage parseChunkData(RtmpHeader header, RtmpChunkData chunkData) throws IOException, AmfException {
-        DataBuffer data = chunkData.getData();
+    private static boolean ownsPayload(RtmpMessage message) {
+        return message instanceof RtmpMessageVideo
+                || message instanceof RtmpMessageAudio
+                || message instanceof RtmpMessageData
+                || message instanceof RtmpMessageUnknown;
+    }
+
+    private RtmpMessage parseChunkData(RtmpHeader header, DataBuffer data) throws IOException, AmfException {
+        // media payloads are handed over as assembled, without a stream
+        switch (header.getType()) {
+        case RtmpMessage.MESSAGE_VIDEO:
+            return new RtmpMessageVideo(data);
+        case RtmpMessage.MESSAGE_AUDIO:
+            return new RtmpMessageAudio(data);
+        case RtmpMessage.MESSAGE_AMF0_DATA:
+        case RtmpMessage.MESSAGE_AMF3_DATA:
+            return new RtmpMessageData(data);
+        }
         ByteBufferInputStream bis = new ByteBufferInputStream(data);
         RtmpMessage message = null;
         switch (header.getType()) {
@@ -93,42 +119,34 @@ public class RtmpMessageDeserializer {
             bis.readByte(); // no used byte, continue to amf0 parsing
         case RtmpMessage.MESSAGE_AMF0_COMMAND: 
             {
-                DataInputStream dis = new DataInputStream(bis);
-                Amf0Deserializer amf0Deserializer = new Amf0Deserializer(dis);
-                Amf3Deserializer amf3Deserializer = new Amf3Deserializer(dis);
+                amf0Deserializer.reset(bis);
+                boolean amf3Object = false;
 
                 String name = amf0Deserializer.read().string();
                 int transactionId = amf0Deserializer.read().integer();
-                ArrayList<AmfValue> argArray = new ArrayList<AmfValue>();
-                boolean amf3Object = false;
-                while (true) {
+                args.clear();
+                while (data.hasRemaining()) {
                     try {
                         if (amf3Object) {
-                            argArray.add(amf3Deserializer.read());
+                            args.add(amf3Deserializer.read());
                         } else {
-                            argArray.add(amf0Deserializer.read());
+                            args.add(amf0Deserializer.read());
                         }
                     } catch (AmfSwitchToAmf3Exception e) {
+                        if (amf3Deserializer == null) {
+                            amf3Deserializer = new Amf3Deserializer(bis);
+                        }
+                        amf3Deserializer.reset(bis);
                         amf3Object = true;
                     } catch (IOException e) {
                         break;
                     }
                 }
-                AmfValue[] args = new AmfValue[argArray.size()];
-                argArray.toArray(args);
-                message = new RtmpMessageCommand(name, transactionId, args);
+                message = new RtmpMessageCommand(name, transactionId,
+                        args.toArray(new AmfValue[args.size()]));
+                args.clear();
             } // end case MESSAGE_AMF0_COMMAND
             break;
-        case RtmpMessage.MESSAGE_VIDEO:
-            message = new RtmpMessageVideo(data);
-            break;
-        case RtmpMessage.MESSAGE_AUDIO:
-            message = new RtmpMessageAudio(data);
-            break;
-        case RtmpMessage.MESSAGE_AMF0_DATA:
-        case RtmpMessage.MESSAGE_AMF3_DATA:
-            message = new RtmpMessageData(data);
-            break;
         case RtmpMessage.MESSAGE_CHUNK_SIZE:
             readChunkSize = (int) bis.read32Bit();
             message = new RtmpMessageChunkSize(readChunkSize);
@@ -1,10 +1,9 @@
 package com.ams.protocol.rtmp;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import com.ams.io.buffer.DataBuffer;
+import com.ams.io.buffer.PooledBuffer;
 import com.ams.io.ByteBufferInputStream;
 import com.ams.io.ByteBufferOutputStream;
 import com.ams.protocol.rtmp.amf.Amf0Serializer;
@@ -53,8 +52,7 @@ public class RtmpMessageSerializer {
             break;
 
         case RtmpMessage.MESSAGE_AMF0_COMMAND: {
-            Amf0Serializer serializer = new Amf0Serializer(
-                    new DataOutputStream(bos));
+            Amf0Serializer serializer = new Amf0Serializer(bos);
 
             String name = ((RtmpMessageCommand) message).getName();
             int transactionId = ((RtmpMessageCommand) message).getTransactionId();
@@ -68,8 +66,7 @@ public class RtmpMessageSerializer {
         }
         case RtmpMessage.MESSAGE_AMF3_COMMAND: {
             bos.writeByte(0); // no used byte
-            Amf0Serializer serializer = new Amf0Serializer(
-                    new DataOutputStream(bos));
+            Amf0Serializer serializer = new Amf0Serializer(bos);
             String name = ((RtmpMessageCommand) message).getName();
             int transactionId = ((RtmpMessageCommand) message).getTransactionId();
             AmfValue[] args = ((RtmpMessageCommand) message).getArgs();
@@ -133,7 +130,7 @@ public class RtmpMessageSerializer {
         headerSerializer.write(header);
 
         ByteBufferInputStream ds = new ByteBufferInputStream(data);
-        ByteBuffer[] packet = null;
+        PooledBuffer[] packet = null;
         if (dataSize <= writeChunkSize) {
             packet = ds.readByteBuffer(dataSize);
             out.writeByteBuffer(packet);
@@ -153,6 +150,13 @@ public class RtmpMessageSerializer {
         ds.close();
     }
 
+    public void write(int streamId, long timestamp, RtmpChunkedMessage message) throws IOException {
+        RtmpHeader header = new RtmpHeader(message.getChunkStreamId(), timestamp, message.getSize(),
+                message.getType(), streamId);
+        headerSerializer.write(header);
+        out.writeByteBuffer(message.getChunks());
+    }
+
     public int getWriteChunkSize() {
         return writeChunkSize;
     }
@@ -1,28 +1,79 @@
 package com.ams.protocol.rtmp.amf;
 
-import java.io.DataInputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.io.IOException;
 
+import com.ams.io.ByteBufferInputStream;
+
 public class Amf0Deserializer {
-    protected ArrayList<AmfValue> storedObjects = new ArrayList<AmfValue>();
-    protected ArrayList<AmfValue> storedStrings = new ArrayList<AmfValue>();
-    protected DataInputStream in;
+    protected ByteBufferInputStream in;
+    private byte[] text = new byte[AmfStrings.MAX_LENGTH];
+
+    public Amf0Deserializer(ByteBufferInputStream in) {
+        this.in = in;
+    }
 
-    public Amf0Deserializer(DataInputStream in) {
+    /**
+     * Continues with another stream, so that one deserializer serves every
+     * message of a connection.
+     */
+    public void reset(ByteBufferInputStream in) {
         this.in = in;
     }
 
-    private String readLongString() throws IOException {
-        int len = in.readInt(); // 32bit read
+    private String readString(int len) throws IOException {
+        if (len <= text.length) {
+            in.readFully(text, 0, len);
+            return AmfStrings.intern(text, len);
+        }
         byte[] buf = new byte[len];
-        in.read(buf, 0, len);
+        in.readFully(buf);
         return new String(buf, "UTF-8");
     }
 
+    private String readShortString() throws IOException {
+        return readString(in.read16Bit()); // 16bit read
+    }
+
+    private String readLongString() throws IOException, AmfException {
+        long len = in.read32Bit(); // 32bit read
+        if (len > Integer.MAX_VALUE) {
+            throw new AmfException("Invalid AMF0 string length: " + len);
+        }
+        return readString((int) len);
+    }
+
+    private Map<String, AmfValue> readProperties() throws IOException, AmfException {
+        Map<String, AmfValue> hash = new LinkedHashMap<String, AmfValue>();
+        while (true) {
+            String key = readShortString();
+            int k = in.readByte() & 0xFF;
+            if (k == 0x09)
+                break; // end of Object
+            hash.put(key, readByType(k));
+        }
+        return hash;
+    }
+
+    // the length is not trusted, the array grows as elements are read
+    private AmfValue[] readArray(long len) throws IOException, AmfException {
+        if (len > Integer.MAX_VALUE) {
+            throw new AmfException("Invalid AMF0 array length: " + len);
+        }
+        AmfValue[] array = new AmfValue[(int) Math.min(len, 16)];
+        for (int i = 0; i < len; i++) {
+            if (i == array.length) {
+                array = Arrays.copyOf(array, (int) Math.min(len, 2L * i));
+            }
+            int k = in.readByte() & 0xFF;
+            array[i] = readByType(k);
+        }
+        return array;
+    }
+
     private AmfValue readByType(int type) throws IOException, AmfException {
         AmfValue amfValue = null;
         switch (type) {
@@ -33,22 +84,22 @@ public class Amf0Deserializer {
             break;
         case 0x01:
             // This specifies the data in the AMF packet is a boolean value.
-            amfValue = new AmfValue(in.readBoolean());
+            amfValue = in.readByte() != 0 ? AmfValue.TRUE : AmfValue.FALSE;
             break;
         case 0x02:
             // This specifies the data in the AMF packet is an ASCII string.
-            amfValue = new AmfValue(in.readUTF());
+            amfValue = new AmfValue(readShortString());
             break;
         case 0x04:
             // This specifies the data in the AMF packet is a Flash movie.
             break;
         case 0x05:
             // This specifies the data in the AMF packet is a NULL value.
-            amfValue = new AmfValue(null);
+            amfValue = AmfValue.NULL;
             break;
         case 0x06:
             // This specifies the data in the AMF packet is a undefined.
-            amfValue = new AmfValue();
+            amfValue = AmfValue.UNDEFINED;
             break;
         case 0x07:
             // This specifies the data in the AMF packet is a reference.
@@ -57,20 +108,11 @@ public class Amf0Deserializer {
             // This specifies the data in the AMF packet is a Flash object.
         case 0x08:
             // This specifies the data in the AMF packet is a ECMA array.
-            Map<String, AmfValue> hash = new LinkedHashMap<String, AmfValue>();
-            boolean isEcmaArray = (type == 0x08);
-            int size = -1;
-            if (isEcmaArray) {
-                size = in.readInt(); // 32bit read
-            }
-            while (true) {
-                String key = in.readUTF();
-                int k = in.readByte() & 0xFF;
-                if (k == 0x09)
-                    break; // end of Object
-                hash.put(key, readByType(k));
+            if (type == 0x08) {
+                in.read32Bit(); // count, not trusted
             }
-            amfValue = new AmfValue(hash);
+            amfValue = new AmfValue(readProperties());
+            amfValue.setEcmaArray(type == 0x08);
             break;
         case 0x09:
             // This specifies the data in the AMF packet is the end of an object
@@ -78,24 +120,19 @@ public class Amf0Deserializer {
             break;
         case 0x0A:
             // This specifies the data in the AMF packet is a Strict array.
-            ArrayList<AmfValue> array = new ArrayList<AmfValue>();
-            int len = in.readInt();
-            for (int i = 0; i < len; i++) {
-                int k = in.readByte() & 0xFF;
-                array.add(readByType(k));
-            }
-            amfValue = new AmfValue(array);
+            amfValue = new AmfValue(readArray(in.read32Bit()));
             break;
         case 0x0B:
             // This specifies the data in the AMF packet is a date.
             double time_ms = in.readDouble();
-            int tz_min = in.readInt(); // 16bit
+            int tz_min = (short) in.read16Bit(); // 16bit
             amfValue = new AmfValue(new Date(
                     (long) (time_ms + tz_min * 60 * 1000.0)));
             break;
         case 0x0C:
             // This specifies the data in the AMF packet is a multi-byte string.
             amfValue = new AmfValue(readLongString()); // 32bit
+            break;
         case 0x0D:
             // This specifies the data in the AMF packet is a an unsupported
             // feature.
@@ -1,20 +1,27 @@
 package com.ams.protocol.rtmp.amf;
 
-import java.io.DataOutputStream;
 import java.util.Date;
 import java.util.Map;
 import java.io.IOException;
 
+import com.ams.io.ByteBufferOutputStream;
+
 public class Amf0Serializer {
-    protected DataOutputStream out;
+    protected ByteBufferOutputStream out;
 
-    public Amf0Serializer(DataOutputStream out) {
+    public Amf0Serializer(ByteBufferOutputStream out) {
         this.out = out;
     }
 
+    private void writeShortString(String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        out.write16Bit(b.length);
+        out.write(b);
+    }
+
     private void writeLongString(String s) throws IOException {
         byte[] b = s.getBytes("UTF-8");
-        out.writeInt(b.length);
+        out.write32Bit(b.length);
         out.write(b);
     }
 
@@ -27,28 +34,29 @@ public class Amf0Serializer {
             break;
         case AmfValue.AMF_BOOL:
             out.writeByte(0x01);
-            out.writeBoolean(amfValue.bool());
+            out.writeByte(amfValue.bool() ? 1 : 0);
             break;
         case AmfValue.AMF_STRING:
-            String s = amfValue.string();
-            if (s.length() <= 0xFFFF) {
+            byte[] b = amfValue.string().getBytes("UTF-8");
+            if (b.length <= 0xFFFF) {
                 out.writeByte(0x02);
-                out.writeUTF(s);
+                out.write16Bit(b.length);
             } else {
                 out.writeByte(0x0C);
-                writeLongString(s);
+                out.write32Bit(b.length);
             }
+            out.write(b);
             break;
         case AmfValue.AMF_OBJECT:
             if (amfValue.isEcmaArray()) {
                 out.writeByte(0x08); // ECMA Array
-                out.writeInt(0);
+                out.write32Bit(0);
             } else {
                 out.writeByte(0x03);
             }
             Map<String, AmfValue> v = amfValue.object();
             for (String key : v.keySet()) {
-                out.writeUTF(key);
+                writeShortString(key);
                 write(v.get(key));
             }
             // end of Object
@@ -60,15 +68,16 @@ public class Amf0Serializer {
             out.writeByte(0x0A);
             AmfValue[] array = amfValue.array();
             int len = array.length;
-            out.writeInt(len);
+            out.write32Bit(len);
             for (int i = 0; i < len; i++) {
                 write(array[i]);
             }
             break;
         case AmfValue.AMF_DATE:
             Date d = amfValue.date();
+            out.writeByte(0x0B);
             out.writeDouble(d.getTime());
-            out.writeShort(0); // loose TZ
+            out.write16Bit(0); // loose TZ
             break;
         case AmfValue.AMF_XML:
             String xml = amfValue.xml();
@@ -1,18 +1,27 @@
 package com.ams.protocol.rtmp.amf;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import com.ams.io.ByteBufferInputStream;
+
 public class Amf3Deserializer {
     protected ArrayList<String> stringRefTable = new ArrayList<String>();
     protected ArrayList<AmfValue> objectRefTable = new ArrayList<AmfValue>();
-    protected DataInputStream in;
+    protected ByteBufferInputStream in;
+    private byte[] text = new byte[AmfStrings.MAX_LENGTH];
+
+    public Amf3Deserializer(ByteBufferInputStream in) {
+        this.in = in;
+    }
 
-    public Amf3Deserializer(DataInputStream in) {
+    public void reset(ByteBufferInputStream in) {
         this.in = in;
+        stringRefTable.clear();
+        objectRefTable.clear();
     }
 
     private int readAmf3Int() throws IOException {
@@ -29,7 +38,7 @@ public class Amf3Deserializer {
             return (b1 & 0x7f) << 14 | (b2 & 0x7f) << 7 | b3;
         }
         byte b4 = in.readByte();
-        return (b1 & 0x7f) << 22 | (b2 & 0x7f) << 15 | (b3 & 0x7f) << 8 | b4;
+        return (b1 & 0x7f) << 22 | (b2 & 0x7f) << 15 | (b3 & 0x7f) << 8 | (b4 & 0xFF);
     }
 
     private String readAmf3String() throws IOException {
@@ -40,9 +49,16 @@ public class Amf3Deserializer {
         if ((v & 0x01) == 0) {
             return stringRefTable.get(v >> 1);
         }
-        byte[] b = new byte[v >> 1];
-        in.read(b);
-        String str = new String(b, "UTF-8");
+        int len = v >> 1;
+        String str;
+        if (len <= text.length) {
+            in.readFully(text, 0, len);
+            str = AmfStrings.intern(text, len);
+        } else {
+            byte[] b = new byte[len];
+            in.readFully(b);
+            str = new String(b, "UTF-8");
+        }
         stringRefTable.add(str);
         return str;
     }
@@ -56,10 +72,14 @@ public class Amf3Deserializer {
         int len = v >> 1;
         String s = readAmf3String();
         if (s.equals("")) { // Strict Array
-            ArrayList<AmfValue> array = new ArrayList<AmfValue>();
+            // the length is not trusted, the array grows as elements are read
+            AmfValue[] array = new AmfValue[Math.min(len, 16)];
             for (int i = 0; i < len; i++) {
+                if (i == array.length) {
+                    array = Arrays.copyOf(array, Math.min(len, 2 * i));
+                }
                 int k = in.readByte() & 0xFF;
-                array.add(readByType(k));
+                array[i] = readByType(k);
             }
             AmfValue obj = new AmfValue(array);
             objectRefTable.add(obj);
@@ -104,25 +124,26 @@ public class Amf3Deserializer {
         switch (type) {
         case 0x00:
             // This specifies the data in the AMF packet is a undefined.
-            amfValue = new AmfValue();
+            amfValue = AmfValue.UNDEFINED;
             break;
         case 0x01:
             // This specifies the data in the AMF packet is a NULL value.
-            amfValue = new AmfValue(null);
+            amfValue = AmfValue.NULL;
             break;
         case 0x02:
             // This specifies the data in the AMF packet is a false boolean
             // value.
-            amfValue = new AmfValue(false);
+            amfValue = AmfValue.FALSE;
             break;
         case 0x03:
             // This specifies the data in the AMF packet is a true boolean
             // value.
-            amfValue = new AmfValue(true);
+            amfValue = AmfValue.TRUE;
             break;
         case 0x04:
             // This specifies the data in the AMF packet is a integer value.
-            amfValue = new AmfValue(readAmf3Int());
+            // 29 bit signed
+            amfValue = new AmfValue(readAmf3Int() << 3 >> 3);
             break;
         case 0x05:
             // This specifies the data in the AMF packet is a double value.
@@ -1,17 +1,18 @@
 package com.ams.protocol.rtmp.amf;
 
-import java.io.DataOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Map;
 import java.io.IOException;
 
+import com.ams.io.ByteBufferOutputStream;
+
 public class Amf3Serializer {
     protected ArrayList<String> stringRefTable = new ArrayList<String>();
     protected ArrayList<AmfValue> objectRefTable = new ArrayList<AmfValue>();
-    protected DataOutputStream out;
+    protected ByteBufferOutputStream out;
 
-    public Amf3Serializer(DataOutputStream out) {
+    public Amf3Serializer(ByteBufferOutputStream out) {
         this.out = out;
     }
 
@@ -0,0 +1,81 @@
+package com.ams.protocol.rtmp.amf;
+
+import java.io.IOException;
+
+/**
+ * Well known command and property names, looked up by their encoded bytes
+ * so that decoding them allocates nothing.
+ */
+final class AmfStrings {
+    static final int MAX_LENGTH = 64;
+
+    private static final String[] NAMES = {
+        // commands
+        "connect", "createStream", "deleteStream", "closeStream", "play",
+        "play2", "publish", "pause", "seek", "receiveAudio", "receiveVideo",
+        "releaseStream", "FCPublish", "FCUnpublish", "FCSubscribe",
+        "getStreamLength", "_result", "_error", "onStatus", "onBWDone",
+        "onMetaData", "@setDataFrame", "|RtmpSampleAccess",
+        // connect and status properties
+        "app", "flashVer", "swfUrl", "tcUrl", "fpad", "capabilities",
+        "audioCodecs", "videoCodecs", "videoFunction", "pageUrl",
+        "objectEncoding", "type", "fmsVer", "mode", "level", "code",
+        "description", "details", "clientid", "data", "status", "error",
+        "nonprivate",
+        // metadata properties
+        "duration", "width", "height", "framerate", "videocodecid",
+        "audiocodecid", "videodatarate", "audiodatarate", "audiosamplerate",
+        "audiosamplesize", "stereo", "filesize", "encoder",
+    };
+
+    private static final int TABLE_SIZE = 256;
+    private static final byte[][] keys = new byte[TABLE_SIZE][];
+    private static final String[] values = new String[TABLE_SIZE];
+
+    static {
+        for (String name : NAMES) {
+            byte[] b;
+            try {
+                b = name.getBytes("UTF-8");
+            } catch (IOException e) {
+                continue;
+            }
+            int i = hash(b, b.length) & (TABLE_SIZE - 1);
+            while (keys[i] != null) {
+                i = (i + 1) & (TABLE_SIZE - 1);
+            }
+            keys[i] = b;
+            values[i] = name;
+        }
+    }
+
+    private static int hash(byte[] b, int length) {
+        int h = length;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + b[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(byte[] key, byte[] b, int length) {
+        if (key.length != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (key[i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    static String intern(byte[] b, int length) throws IOException {
+        int i = hash(b, length) & (TABLE_SIZE - 1);
+        byte[] key;
+        while ((key = keys[i]) != null) {
+            if (matches(key, b, length)) {
+                return values[i];
+            }
+            i = (i + 1) & (TABLE_SIZE - 1);
+        }
+        return new String(b, 0, length, "UTF-8");
+    }
+}
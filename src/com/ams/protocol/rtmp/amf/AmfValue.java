@@ -1,6 +1,5 @@
 package com.ams.protocol.rtmp.amf;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Date;
 import java.util.LinkedHashMap;
@@ -21,14 +20,36 @@ public class AmfValue {
     public final static int AMF_NULL = 9;
     public final static int AMF_UNDEFINED = 0;
 
+    // shared values of the deserializers, never modified
+    static final AmfValue NULL = new AmfValue(null);
+    static final AmfValue UNDEFINED = new AmfValue();
+    static final AmfValue TRUE = new AmfValue(true);
+    static final AmfValue FALSE = new AmfValue(false);
+
     protected int kind = 0;
     protected Object value;
+    protected double number; // numbers and booleans are kept unboxed
     protected boolean ecmaArray = false;
 
     public AmfValue() {
         this.kind = AMF_UNDEFINED;
     }
 
+    public AmfValue(int value) {
+        this.kind = AMF_INT;
+        this.number = value;
+    }
+
+    public AmfValue(double value) {
+        this.kind = AMF_NUMBER;
+        this.number = value;
+    }
+
+    public AmfValue(boolean value) {
+        this.kind = AMF_BOOL;
+        this.number = value ? 1 : 0;
+    }
+
     public AmfValue(Object value) {
         if (value == null)
             this.kind = AMF_NULL;
@@ -48,7 +69,13 @@ public class AmfValue {
         else if (value instanceof Date)
             this.kind = AMF_DATE;
 
-        this.value = value;
+        if (value instanceof Number) {
+            this.number = ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            this.number = ((Boolean) value) ? 1 : 0;
+        } else {
+            this.value = value;
+        }
     }
 
     public AmfValue put(String key, Object v) {
@@ -89,36 +116,34 @@ public class AmfValue {
         return kind;
     }
 
-    public Integer integer() {
-        if (value == null) {
-            throw new NullPointerException("parameter is null");
-        }
+    private void checkNumber() {
         if (kind != AmfValue.AMF_INT && kind != AmfValue.AMF_NUMBER) {
+            if (kind == AmfValue.AMF_NULL) {
+                throw new NullPointerException("parameter is null");
+            }
             throw new IllegalArgumentException(
                     "parameter is not a Amf Integer or Amf Number");
         }
-        return ((Number) value).intValue();
     }
 
-    public Double number() {
-        if (value == null) {
-            throw new NullPointerException("parameter is null");
-        }
-        if (kind != AmfValue.AMF_INT && kind != AmfValue.AMF_NUMBER) {
-            throw new IllegalArgumentException(
-                    "parameter is not a Amf Integer or Amf Number");
-        }
-        return ((Number) value).doubleValue();
+    public int integer() {
+        checkNumber();
+        return (int) number;
     }
 
-    public Boolean bool() {
-        if (value == null) {
-            throw new NullPointerException("parameter is null");
-        }
+    public double number() {
+        checkNumber();
+        return number;
+    }
+
+    public boolean bool() {
         if (kind != AmfValue.AMF_BOOL) {
+            if (kind == AmfValue.AMF_NULL) {
+                throw new NullPointerException("parameter is null");
+            }
             throw new IllegalArgumentException("parameter is not a Amf Bool");
         }
-        return (Boolean) value;
+        return number != 0;
     }
 
     public String string() {
@@ -184,8 +209,11 @@ public class AmfValue {
         boolean first;
         switch (kind) {
         case AmfValue.AMF_INT:
+            return Long.toString((long) number);
         case AmfValue.AMF_NUMBER:
+            return Double.toString(number);
         case AmfValue.AMF_BOOL:
+            return Boolean.toString(number != 0);
         case AmfValue.AMF_DATE:
             return value.toString();
         case AmfValue.AMF_STRING:
@@ -233,8 +261,7 @@ public class AmfValue {
     public static DataBuffer toBinary(AmfValue[] values) {
         DataBuffer buf = new DataBuffer();
         ByteBufferOutputStream out = new ByteBufferOutputStream(buf);
-        Amf0Serializer serializer = new Amf0Serializer(
-                new DataOutputStream(out));
+        Amf0Serializer serializer = new Amf0Serializer(out);
         try {
             for (int i = 0, len = values.length; i < len; i++) {
                 serializer.write(values[i]);
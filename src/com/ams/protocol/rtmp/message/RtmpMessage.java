@@ -63,5 +63,9 @@ public class RtmpMessage {
         }
         return mediaMessage;
     }
-    
+
+    // releases the payload, if the message carries one
+    public void release() {
+    }
+
 }
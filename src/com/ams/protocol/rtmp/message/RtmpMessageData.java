@@ -13,4 +13,11 @@ public class RtmpMessageData extends RtmpMessage {
     public DataBuffer getData() {
         return data;
     }
+
+    public void release() {
+        if (data != null) {
+            data.release();
+        }
+    }
+
 }
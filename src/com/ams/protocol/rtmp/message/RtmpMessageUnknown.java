@@ -20,4 +20,10 @@ public class RtmpMessageUnknown extends RtmpMessage {
         return data;
     }
 
+    public void release() {
+        if (data != null) {
+            data.release();
+        }
+    }
+
 }
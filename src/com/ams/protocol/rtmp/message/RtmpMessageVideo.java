@@ -14,4 +14,10 @@ public class RtmpMessageVideo extends RtmpMessage {
         return data;
     }
 
+    public void release() {
+        if (data != null) {
+            data.release();
+        }
+    }
+
 }
@@ -1,12 +1,14 @@
 package com.ams.protocol.rtmp.net;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ams.io.network.Connection;
 import com.ams.protocol.rtmp.RtmpConnection;
 import com.ams.protocol.rtmp.RtmpException;
 import com.ams.protocol.rtmp.RtmpHandShake;
@@ -23,11 +25,19 @@ import com.ams.protocol.rtmp.message.RtmpMessageWindowAckSize;
 
 public class NetConnection {
     private Logger logger = LoggerFactory.getLogger(NetConnection.class);
+    private static final int DEFAULT_READ_MESSAGES = 64;
+    private static final int DEFAULT_READ_BYTES = 256 * 1024;
 
     private RtmpHandShake handshake;
     private RtmpConnection rtmp;
     private NetContext context;
     private HashMap<Integer, NetStream> streams;
+    private int maxReadMessages = DEFAULT_READ_MESSAGES;
+    private int maxReadBytes = DEFAULT_READ_BYTES;
+    // commands doing file io wait while the handler runs on a dispatcher
+    private boolean blockingAllowed = true;
+    private RtmpHeader deferredHeader = null;
+    private RtmpMessage deferredMessage = null;
 
     public NetConnection(RtmpConnection rtmp, NetContext context) {
         this.rtmp = rtmp;
@@ -48,6 +58,7 @@ public class NetConnection {
             return;
         }
 
+        // the publisher retains what it keeps, the payload is released by the caller
         publisher.publish(message.toMediaMessage(header.getTimestamp()));
 
         if (publisher.isPing()) {
@@ -284,13 +295,74 @@ public class NetConnection {
     public void readAndProcessRtmpMessage() throws IOException, RtmpException {
         if (!handshake.isHandshakeDone()) {
             handshake.doServerHandshake();
+            if (handshake.isHandshakeDone()) {
+                rtmp.getConnection().setIdleClass(Connection.IDLE_SESSION);
+            }
             return;
         }
 
-        if (!rtmp.readRtmpMessage())
-            return;
-        RtmpHeader header = rtmp.getCurrentHeader();
-        RtmpMessage message = rtmp.getCurrentMessage();
+        if (deferredMessage != null) {
+            if (!blockingAllowed) {
+                return;
+            }
+            RtmpHeader header = deferredHeader;
+            RtmpMessage message = deferredMessage;
+            deferredHeader = null;
+            deferredMessage = null;
+            processRtmpMessage(header, message);
+        }
+
+        // drain all complete chunks, yield when the budget is used up
+        Connection conn = rtmp.getConnection();
+        int messages = 0;
+        long readBytes = 0;
+        while (messages < maxReadMessages && readBytes < maxReadBytes) {
+            long available = conn.readAvailable();
+            boolean ready = rtmp.readRtmpMessage();
+            long remain = conn.readAvailable();
+            readBytes += available - remain;
+            if (!ready) {
+                if (remain == available) {
+                    break;  // no complete chunk
+                }
+                continue;
+            }
+            RtmpHeader header = rtmp.getCurrentHeader();
+            RtmpMessage message = rtmp.getCurrentMessage();
+            if (!blockingAllowed && isBlockingCommand(message)) {
+                // the header is reused by the next chunk of its chunk stream
+                deferredHeader = new RtmpHeader(header.getChunkStreamId(),
+                        header.getTimestamp(), header.getSize(),
+                        header.getType(), header.getStreamId());
+                deferredMessage = message;
+                break;
+            }
+            processRtmpMessage(header, message);
+            messages++;
+        }
+    }
+
+    // commands opening or seeking media files
+    private static boolean isBlockingCommand(RtmpMessage message) {
+        if (!(message instanceof RtmpMessageCommand)) {
+            return false;
+        }
+        RtmpMessageCommand command = (RtmpMessageCommand) message;
+        String name = command.getName();
+        try {
+            if ("play".equals(name)) {
+                return command.getCommandParameter(1, -2).integer() != -1; // not live only
+            } else if ("publish".equals(name)) {
+                String type = command.getCommandParameter(1, "").string();
+                return "record".equals(type) || "append".equals(type);
+            }
+        } catch (RuntimeException e) {
+            return true; // malformed, handled off the dispatcher
+        }
+        return "seek".equals(name);
+    }
+
+    private void processRtmpMessage(RtmpHeader header, RtmpMessage message) {
         try {
             switch (message.getType()) {
             case RtmpMessage.MESSAGE_AMF0_COMMAND:
@@ -345,23 +417,66 @@ public class NetConnection {
             }
         } catch (Exception e) {
             logger.debug("Exception", e);
+        } finally {
+            // payloads are only retained by whoever keeps them
+            message.release();
         }
     }
 
-    public void playStreams() {
+    public void setReadBudget(int maxReadMessages, int maxReadBytes) {
+        this.maxReadMessages = maxReadMessages;
+        this.maxReadBytes = maxReadBytes;
+    }
+
+    public long playStreams() {
+        long delay = -1;
         for (NetStream stream : streams.values()) {
             try {
-                stream.doPlay();
+                long d = stream.doPlay();
+                if (d >= 0 && (delay < 0 || d < delay)) {
+                    delay = d;
+                }
             } catch (IOException e) {
             }
         }
+        return delay;
     }
 
-    public void close() {
+    public boolean hasPlayers() {
         for (NetStream stream : streams.values()) {
+            if (stream.hasPlayer()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasRecorders() {
+        for (NetStream stream : streams.values()) {
+            if (stream.isRecording()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasDeferredCommand() {
+        return deferredMessage != null;
+    }
+
+    /**
+     * Whether commands doing file io may run on the calling thread, they are
+     * deferred otherwise.
+     */
+    public void setBlockingAllowed(boolean blockingAllowed) {
+        this.blockingAllowed = blockingAllowed;
+    }
+
+    public void close() {
+        for (NetStream stream : new ArrayList<NetStream>(streams.values())) {
             closeStream(stream);
         }
-        streams.clear();
+        rtmp.releaseChunkData();
     }
 
     public NetStream createStream() {
@@ -372,11 +487,13 @@ public class NetConnection {
         }
         NetStream stream = new NetStream(rtmp, id);
         streams.put(id, stream);
+        rtmp.openChunkStreams(id);
         return stream;
     }
 
-    private void closeStream(NetStream stream) {
+    public void closeStream(NetStream stream) {
         stream.close();
         streams.remove(stream.getStreamId());
+        rtmp.releaseChunkStreams(stream.getStreamId());
     }
 }
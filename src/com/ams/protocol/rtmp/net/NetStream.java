@@ -10,10 +10,13 @@ import org.slf4j.LoggerFactory;
 import com.ams.io.ByteBufferInputStream;
 import com.ams.io.RandomAccessFileReader;
 import com.ams.io.RandomAccessFileWriter;
+import com.ams.io.network.Connection;
+import com.ams.io.network.ConnectionWritabilityListener;
 import com.ams.media.IMediaDeserializer;
 import com.ams.media.flv.FlvDeserializer;
 import com.ams.media.flv.FlvSerializer;
 import com.ams.media.mp4.Mp4Deserializer;
+import com.ams.protocol.rtmp.RtmpChunkCache;
 import com.ams.protocol.rtmp.RtmpConnection;
 import com.ams.protocol.rtmp.amf.AmfValue;
 import com.ams.protocol.rtmp.message.RtmpMessage;
@@ -23,7 +26,7 @@ import com.ams.protocol.rtmp.message.RtmpMessageData;
 import com.ams.protocol.rtmp.message.RtmpMessageUserControl;
 import com.ams.server.service.rtmp.replication.ReplSlaveService;
 
-public class NetStream {
+public class NetStream implements ConnectionWritabilityListener {
     private Logger logger = LoggerFactory.getLogger(NetStream.class);
     private RtmpConnection rtmp;
     private int streamId;
@@ -32,7 +35,8 @@ public class NetStream {
     private long timeStamp = 0;
 
     private StreamPublisher publisher = null;
-    private StreamPlayer player = null;
+    private volatile StreamPlayer player = null;
+    private volatile StreamSubscriber subscriber = null;
 
     public NetStream(RtmpConnection rtmp, int streamId) {
         this.rtmp = rtmp;
@@ -43,6 +47,10 @@ public class NetStream {
         rtmp.writeRtmpMessage(streamId, timeStamp, message);
     }
 
+    public void writeMediaMessage(RtmpChunkCache chunkCache) throws IOException {
+        rtmp.writeMediaMessage(streamId, timeStamp, chunkCache);
+    }
+
     public void writeStatusMessage(String status, AmfValue info) throws IOException {
         AmfValue value = AmfValue.newObject();
         value.put("level", "status")
@@ -68,31 +76,65 @@ public class NetStream {
         writeMessage(new RtmpMessageData(AmfValue.toBinary(values)));
     }
     
-    public void doPlay() throws IOException {
+    public long doPlay() throws IOException {
         if (player != null) {
             try {
-                player.play();
+                return player.play();
             } catch (EOFException e) {
                 player.pause(true);
                 stop();
             }
         }
+        return -1;
     }
     
     public synchronized void close() {
+        getConnection().removeWritabilityListener(this);
         if (player != null) {
             player.close();
         }
+        if (subscriber != null) {
+            subscriber.close();
+            subscriber = null;
+        }
         if (publisher != null) {
             publisher.close();
             PublisherManager.getInstance().removePublisher(publisher.getPublishName());
         }
     }
 
+    public boolean hasPlayer() {
+        return player != null;
+    }
+
+    public boolean isRecording() {
+        return publisher != null && publisher.isRecording();
+    }
+
     public boolean isWriteBlocking() {
         return rtmp.getConnection().isWriteBlocking();
     }
 
+    @Override
+    public void onWritabilityChanged(Connection conn, boolean writable) {
+        StreamPlayer player = this.player;
+        if (player != null) {
+            player.writabilityChanged(writable);
+        }
+        StreamSubscriber subscriber = this.subscriber;
+        if (subscriber != null) {
+            subscriber.writabilityChanged(writable);
+        }
+    }
+
+    public Connection getConnection() {
+        return rtmp.getConnection();
+    }
+
+    public void disconnect() {
+        rtmp.close();
+    }
+
     public void setTransactionId(int transactionId) {
         this.transactionId = transactionId;
     }
@@ -145,11 +187,12 @@ public class NetStream {
 
     public void play(NetContext context, String streamName, int start, int duration, boolean reset)
             throws IOException {
-        if (player != null) {
+        if (player != null || subscriber != null) {
             writeErrorMessage("This channel is already playing");
             return;
         }
         this.playStreamName = streamName;
+        getConnection().addWritabilityListener(this);
 
         // set chunk size
         rtmp.writeProtocolControlMessage(new RtmpMessageChunkSize(1024));
@@ -193,7 +236,7 @@ public class NetStream {
                 ReplSlaveService.getInstance().addSubscription(streamName);
                 return;
             }
-            StreamSubscriber subscriber = new StreamSubscriber(publisher, this);
+            subscriber = new StreamSubscriber(publisher, this);
             publisher.addSubscriber(subscriber);
         }
             break;
@@ -202,7 +245,7 @@ public class NetStream {
             String publishName = context.getPublishName(app, streamName);
             StreamPublisher publisher = (StreamPublisher) PublisherManager.getInstance().getPublisher(publishName);
             if (publisher != null) {
-                StreamSubscriber subscriber = new StreamSubscriber(publisher, this);
+                subscriber = new StreamSubscriber(publisher, this);
                 publisher.addSubscriber(subscriber);
                 break;
             } else {
@@ -12,6 +12,7 @@ import com.ams.protocol.rtmp.message.RtmpMessageVideo;
 
 public class StreamPlayer {
     private static int BUFFER_TIME = 3 * 1000; // x seconds of buffering
+    private static int RETRY_TIME = 10;
     private NetStream stream = null;
 	private IMediaDeserializer deserializer;
     private long startTime = -1;
@@ -19,11 +20,13 @@ public class StreamPlayer {
     private boolean pause = false;
     private boolean audioPlaying = true;
     private boolean videoPlaying = true;
+    private volatile boolean writable = true;
 
     public StreamPlayer(IMediaDeserializer deserializer, NetStream stream)
             throws IOException {
         this.deserializer = deserializer;
         this.stream = stream;
+        this.writable = !stream.isWriteBlocking();
     }
 
     public void close() {
@@ -42,15 +45,18 @@ public class StreamPlayer {
         MediaMessage metaData = deserializer.metaData();
         if (metaData != null) {
             stream.writeMessage(metaData.toRtmpMessage());
+            metaData.release();
         }
 
         MediaMessage videoHeaderData = deserializer.videoHeaderData();
         if (videoHeaderData != null) {
             stream.writeMessage(videoHeaderData.toRtmpMessage());
+            videoHeaderData.release();
         }
         MediaMessage audioHeaderData = deserializer.audioHeaderData();
         if (audioHeaderData != null) {
             stream.writeMessage(audioHeaderData.toRtmpMessage());
+            audioHeaderData.release();
         }
 
     }
@@ -66,14 +72,18 @@ public class StreamPlayer {
         writeStartData();
     }
 
-    public void play() throws IOException {
+    public long play() throws IOException {
         if (pause)
-            return;
+            return -1;
         long time = System.currentTimeMillis() - startTime;
         while (stream.getTimeStamp() < time) {
+            // resumed by the writable notification of the connection
+            if (!writable) {
+                return -1;
+            }
             MediaMessage sample = deserializer.readNext();
             if (sample == null) {
-                break;
+                return RETRY_TIME;
             }
             long timestamp = sample.getTimestamp();
             stream.setTimeStamp(timestamp);
@@ -85,7 +95,15 @@ public class StreamPlayer {
             } else if (sample.isMeta()) {
                 stream.writeMessage(new RtmpMessageData(data));
             }
+            sample.release();
         }
+        // time until the next sample is due
+        long delay = startTime + stream.getTimeStamp() - System.currentTimeMillis();
+        return delay > 0 ? delay : 0;
+    }
+
+    public void writabilityChanged(boolean writable) {
+        this.writable = writable;
     }
 
     public void pause(boolean pause) {
@@ -1,7 +1,10 @@
 package com.ams.protocol.rtmp.net;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,10 +13,15 @@ import com.ams.media.IMediaSerializer;
 import com.ams.media.IMsgPublisher;
 import com.ams.media.IMsgSubscriber;
 import com.ams.media.MediaMessage;
+import com.ams.protocol.rtmp.RtmpChunkCache;
 
 public class StreamPublisher implements IMsgPublisher {
     final private Logger logger = LoggerFactory
             .getLogger(StreamPublisher.class);
+    private static int gopCacheBytes = 4 * 1024 * 1024;
+    private static int gopCacheDuration = 10000;
+    private static Executor fanoutExecutor = null;
+    private static int fanoutShards = 1;
 
     protected String publishName = null;
     private int pingBytes = 0;
@@ -23,11 +31,21 @@ public class StreamPublisher implements IMsgPublisher {
     protected MediaMessage videoHeader = null;
     protected MediaMessage audioHeader = null;
     protected MediaMessage meta = null;
-    protected ConcurrentLinkedQueue<IMsgSubscriber> subscribers = new ConcurrentLinkedQueue<IMsgSubscriber>();
+    // last keyframe and the frames following it, replayed to new subscribers
+    protected LinkedList<RtmpChunkCache> gopCache = new LinkedList<RtmpChunkCache>();
+    private int gopBytes = 0;
+    // subscribers are sharded into groups notified on the fan-out executor
+    protected SubscriberGroup[] groups;
+    protected ConcurrentHashMap<IMsgSubscriber, SubscriberGroup> subscribers = new ConcurrentHashMap<IMsgSubscriber, SubscriberGroup>();
+    private int nextGroup = 0;
 
     protected IMediaSerializer recorder = null; // record to file stream
 
     public StreamPublisher(String publishName) {
+        this.groups = new SubscriberGroup[fanoutExecutor != null ? fanoutShards : 1];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new SubscriberGroup(fanoutExecutor);
+        }
         this.publishName = publishName;
         String tokens[] = publishName.split(":");
         if (tokens.length >= 2) {
@@ -40,20 +58,23 @@ public class StreamPublisher implements IMsgPublisher {
         boolean skipNotify = false;
         if (msg.isH264AudioHeader()) {
             if (audioHeader == null) {
-                audioHeader = msg;
+                audioHeader = msg.retain();
                 logger.debug("received h264 audio header.");
             } else {
                 skipNotify = true;
             }
         } else if (msg.isH264VideoHeader()) {
             if (videoHeader == null) {
-                videoHeader = msg;
+                videoHeader = msg.retain();
                 logger.debug("received h264 video header.");
             } else {
                 skipNotify = true;
             }
         } else if (msg.isMeta()) {
-            meta = msg;
+            if (meta != null) {
+                meta.release();
+            }
+            meta = msg.retain();
         }
 
         // ping
@@ -68,24 +89,73 @@ public class StreamPublisher implements IMsgPublisher {
         }
         // publish packet to other stream subscriber
         if (!skipNotify) {
-            notify(msg);
+            // chunked once on demand, shared by all groups
+            RtmpChunkCache chunkCache = new RtmpChunkCache(msg);
+            try {
+                cacheGop(chunkCache);
+                notify(chunkCache);
+            } finally {
+                chunkCache.release();
+            }
+        }
+    }
+
+    private void cacheGop(RtmpChunkCache chunkCache) {
+        MediaMessage msg = chunkCache.getMessage();
+        if (msg.isMeta() || msg.isH264AudioHeader() || msg.isH264VideoHeader())
+            return;
+        if (msg.isVideoKeyframe()) {
+            clearGop();
+        } else if (gopCache.isEmpty()) {
+            return; // wait for next keyframe
+        }
+        gopCache.add(chunkCache.retain());
+        gopBytes += msg.getDataSize();
+        long duration = msg.getTimestamp() - gopCache.getFirst().getMessage().getTimestamp();
+        if (gopBytes > gopCacheBytes || duration > gopCacheDuration) {
+            clearGop();
+        }
+    }
+
+    private void clearGop() {
+        for (RtmpChunkCache chunkCache : gopCache) {
+            chunkCache.release();
         }
+        gopCache.clear();
+        gopBytes = 0;
     }
 
     public synchronized void close() {
         if (recorder != null) {
             recorder.close();
         }
+        for (SubscriberGroup group : groups) {
+            group.clear();
+        }
         subscribers.clear();
-        videoHeader = null;
-        audioHeader = null;
-        meta = null;
+        clearGop();
+        releaseHeaders();
         pause = false;
     }
 
-    private void notify(MediaMessage message) {
-        for (IMsgSubscriber subscriber : subscribers) {
-            subscriber.messageNotify(message);
+    private void releaseHeaders() {
+        if (videoHeader != null) {
+            videoHeader.release();
+            videoHeader = null;
+        }
+        if (audioHeader != null) {
+            audioHeader.release();
+            audioHeader = null;
+        }
+        if (meta != null) {
+            meta.release();
+            meta = null;
+        }
+    }
+
+    private void notify(RtmpChunkCache chunkCache) {
+        for (SubscriberGroup group : groups) {
+            group.publish(chunkCache);
         }
     }
 
@@ -99,15 +169,22 @@ public class StreamPublisher implements IMsgPublisher {
         }
     }
 
-    public void addSubscriber(IMsgSubscriber subscriber) {
-        synchronized (subscribers) {
-            subscribers.add(subscriber);
+    public synchronized void addSubscriber(IMsgSubscriber subscriber) {
+        SubscriberGroup group = groups[nextGroup];
+        nextGroup = (nextGroup + 1) % groups.length;
+        subscribers.put(subscriber, group);
+        // the gop is replayed in the group, in order with later messages
+        ArrayList<RtmpChunkCache> gop = new ArrayList<RtmpChunkCache>(gopCache.size());
+        for (RtmpChunkCache chunkCache : gopCache) {
+            gop.add(chunkCache.retain());
         }
+        group.addSubscriber(subscriber, gop);
     }
 
-    public void removeSubscriber(IMsgSubscriber subscriber) {
-        synchronized (subscribers) {
-            subscribers.remove(subscriber);
+    public synchronized void removeSubscriber(IMsgSubscriber subscriber) {
+        SubscriberGroup group = subscribers.remove(subscriber);
+        if (group != null) {
+            group.removeSubscriber(subscriber);
         }
     }
 
@@ -115,6 +192,20 @@ public class StreamPublisher implements IMsgPublisher {
         this.recorder = recorder;
     }
 
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    public static void setGopCacheLimit(int bytes, int duration) {
+        gopCacheBytes = bytes;
+        gopCacheDuration = duration;
+    }
+
+    public static void setFanout(Executor executor, int shards) {
+        fanoutExecutor = executor;
+        fanoutShards = shards > 0 ? shards : 1;
+    }
+
     public boolean isPing() {
         return ping;
     }
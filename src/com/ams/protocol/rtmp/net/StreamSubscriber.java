@@ -2,41 +2,188 @@ package com.ams.protocol.rtmp.net;
 
 import java.io.IOException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ams.io.network.Connection;
 import com.ams.media.IMsgSubscriber;
 import com.ams.media.MediaMessage;
+import com.ams.protocol.rtmp.RtmpChunkCache;
 
+/**
+ * Writes the messages of a publisher to a play stream. Notifications come
+ * from the drain thread of its subscriber group, one thread at a time, and
+ * only they touch the keyframe, timestamp and pending marks state; the
+ * initial values are published to that thread through the group's event
+ * queue. Closing and writability changes come from other threads.
+ */
 public class StreamSubscriber implements IMsgSubscriber {
+    final private Logger logger = LoggerFactory.getLogger(StreamSubscriber.class);
+    private static final int MAX_PENDING_MARKS = 1024;
+    private static int maxPendingBytes = 4 * 1024 * 1024;
+    private static int maxPendingTime = 10000;
+    private static int maxLagTime = 30000;
+
     protected StreamPublisher publisher;
     protected NetStream stream;
     private boolean firstKeyframe = false;
+    private long timestampBase = -1;
+    private volatile boolean closed = false;
+    private volatile boolean writable = true;
+    // queued byte offset past the replayed gop, not accounted as pending
+    private long replayBytes = 0;
+
+    // queued byte offset and timestamp of messages not yet written to the socket
+    private long[] markBytes = new long[MAX_PENDING_MARKS];
+    private long[] markTimes = new long[MAX_PENDING_MARKS];
+    private int markHead = 0;
+    private int markCount = 0;
+
+    private boolean waitKeyframe = false;
+    private long lagStartTime = 0;
+    // written by the drain thread only, read by others
+    private volatile long droppedFrames = 0;
+    private volatile long droppedGopFrames = 0;
+    private volatile long droppedGops = 0;
 
     public StreamSubscriber(StreamPublisher publisher, NetStream stream) {
         this.publisher = publisher;
         this.stream = stream;
+        this.writable = !stream.isWriteBlocking();
         sendMediaHeader();
     }
 
     public void messageNotify(MediaMessage msg) {
-        if (msg == null)
+        // not fanned out by a publisher, chunked for this subscriber alone
+        RtmpChunkCache chunkCache = new RtmpChunkCache(msg);
+        try {
+            messageNotify(chunkCache);
+        } finally {
+            chunkCache.release();
+        }
+    }
+
+    public void messageNotify(RtmpChunkCache chunkCache) {
+        MediaMessage msg = chunkCache.getMessage();
+        if (!accept(msg))
+            return;
+
+        Connection conn = stream.getConnection();
+        if (!admit(conn, msg)) {
+            return;
+        }
+        sendMediaMessage(chunkCache);
+        mark(conn.getBytesQueued(), msg.getTimestamp());
+    }
+
+    /**
+     * Sends a frame of the cached gop. The gop is queued at once, so it is
+     * neither throttled nor counted in the pending bytes and time of the
+     * live frames following it.
+     */
+    public void replayNotify(RtmpChunkCache chunkCache) {
+        if (!accept(chunkCache.getMessage()))
             return;
 
+        sendMediaMessage(chunkCache);
+        replayBytes = stream.getConnection().getBytesQueued();
+    }
+
+    private boolean accept(MediaMessage msg) {
+        if (msg == null || closed)
+            return false;
+
+        if (stream.getConnection().isClosed()) {
+            close();
+            return false;
+        }
+
         if (!firstKeyframe) {
             if (!msg.isVideoKeyframe()) {
-                return; // drop non-keyframe at head
+                return false; // drop non-keyframe at head
             }
             firstKeyframe = true;
+            timestampBase = msg.getTimestamp();
         }
-        // TODO if network is slow, maybe drop some frame
-        sendMediaMessage(msg);
+        return true;
     }
 
-    private void sendMediaMessage(MediaMessage msg) {
-        if (msg == null)
+    private boolean admit(Connection conn, MediaMessage msg) {
+        long bytesWritten = conn.getBytesWritten();
+        long pendingBytes = conn.getBytesQueued() - Math.max(bytesWritten, replayBytes);
+        long pendingTime = getPendingTime(bytesWritten, msg.getTimestamp());
+        boolean congested = pendingBytes > maxPendingBytes || pendingTime > maxPendingTime;
+        // the replayed gop alone may hold the connection above its watermark
+        boolean slow = (!writable && bytesWritten >= replayBytes)
+                || pendingBytes > maxPendingBytes / 2
+                || pendingTime > maxPendingTime / 2;
+
+        if (congested) {
+            long now = System.currentTimeMillis();
+            if (lagStartTime == 0) {
+                lagStartTime = now;
+            } else if (now - lagStartTime > maxLagTime) {
+                logger.info("disconnect slow subscriber of {}, pending {} bytes",
+                        publisher.getPublishName(), pendingBytes);
+                close();
+                stream.disconnect();
+                return false;
+            }
+        } else {
+            lagStartTime = 0;
+        }
+
+        // always keep audio
+        if (!msg.isVideo()) {
+            return true;
+        }
+        if (waitKeyframe) {
+            if (msg.isVideoKeyframe() && !congested) {
+                waitKeyframe = false;
+                return true;
+            }
+            droppedGopFrames++;
+            return false;
+        }
+        if (congested) {
+            // drop the rest of this gop
+            waitKeyframe = true;
+            droppedGops++;
+            droppedGopFrames++;
+            return false;
+        }
+        if (slow && msg.isVideoDisposable()) {
+            droppedFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    private void mark(long bytes, long timestamp) {
+        if (markCount == MAX_PENDING_MARKS) {
             return;
+        }
+        int tail = (markHead + markCount) % MAX_PENDING_MARKS;
+        markBytes[tail] = bytes;
+        markTimes[tail] = timestamp;
+        markCount++;
+    }
+
+    private long getPendingTime(long bytesWritten, long timestamp) {
+        while (markCount > 0 && markBytes[markHead] <= bytesWritten) {
+            markHead = (markHead + 1) % MAX_PENDING_MARKS;
+            markCount--;
+        }
+        if (markCount == 0) {
+            return 0;
+        }
+        return timestamp - markTimes[markHead];
+    }
 
+    private void sendMediaMessage(RtmpChunkCache chunkCache) {
         try {
-            stream.setTimeStamp(msg.getTimestamp());
-            stream.writeMessage(msg.toRtmpMessage());
+            stream.setTimeStamp(rebase(chunkCache.getMessage().getTimestamp()));
+            stream.writeMediaMessage(chunkCache);
 
             // stream.flush();
         } catch (IOException e) {
@@ -44,14 +191,62 @@ public class StreamSubscriber implements IMsgSubscriber {
         }
     }
 
+    private void sendMediaHeader(MediaMessage msg) {
+        if (msg == null)
+            return;
+
+        try {
+            stream.setTimeStamp(rebase(msg.getTimestamp()));
+            stream.writeMessage(msg.toRtmpMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long rebase(long timestamp) {
+        if (timestampBase < 0 || timestamp < timestampBase)
+            return 0;
+        return timestamp - timestampBase;
+    }
+
     public void close() {
+        closed = true;
         publisher.removeSubscriber(this);
     }
 
+    public void writabilityChanged(boolean writable) {
+        this.writable = writable;
+    }
+
+    public NetStream getStream() {
+        return stream;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getDroppedGopFrames() {
+        return droppedGopFrames;
+    }
+
+    public long getDroppedGops() {
+        return droppedGops;
+    }
+
     public void sendMediaHeader() {
-        sendMediaMessage(publisher.getVideoHeader());
-        sendMediaMessage(publisher.getAudioHeader());
-        sendMediaMessage(publisher.getMeta());
+        // the publisher releases replaced headers under its lock
+        synchronized (publisher) {
+            sendMediaHeader(publisher.getVideoHeader());
+            sendMediaHeader(publisher.getAudioHeader());
+            sendMediaHeader(publisher.getMeta());
+        }
+    }
+
+    public static void setQueueLimit(int bytes, int time, int lagTime) {
+        maxPendingBytes = bytes;
+        maxPendingTime = time;
+        maxLagTime = lagTime;
     }
 
 }
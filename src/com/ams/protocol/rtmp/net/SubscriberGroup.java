@@ -0,0 +1,169 @@
+package com.ams.protocol.rtmp.net;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ams.media.IMsgSubscriber;
+import com.ams.protocol.rtmp.RtmpChunkCache;
+
+/**
+ * Fans the messages of a publisher out to its subscribers. Events are
+ * drained by one thread at a time, a worker of the executor or, without
+ * one, whichever publishing or subscribing thread gets to them first, so
+ * subscribers are only ever notified from a single thread at once.
+ */
+class SubscriberGroup implements Runnable {
+    private static final int MAX_DRAIN_EVENTS = 64;
+
+    private Executor executor;
+    private ConcurrentLinkedQueue<IMsgSubscriber> subscribers = new ConcurrentLinkedQueue<IMsgSubscriber>();
+    private ConcurrentLinkedQueue<Object> events = new ConcurrentLinkedQueue<Object>();
+    private AtomicInteger size = new AtomicInteger(0);
+    private AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private static class Subscription {
+        IMsgSubscriber subscriber;
+        List<RtmpChunkCache> gop; // null to unsubscribe
+
+        Subscription(IMsgSubscriber subscriber, List<RtmpChunkCache> gop) {
+            this.subscriber = subscriber;
+            this.gop = gop;
+        }
+    }
+
+    public SubscriberGroup(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void publish(RtmpChunkCache chunkCache) {
+        if (size.get() == 0)
+            return;
+        // released once notified
+        events.offer(chunkCache.retain());
+        schedule();
+    }
+
+    public void addSubscriber(IMsgSubscriber subscriber, List<RtmpChunkCache> gop) {
+        size.incrementAndGet();
+        events.offer(new Subscription(subscriber, gop));
+        schedule();
+    }
+
+    public void removeSubscriber(IMsgSubscriber subscriber) {
+        events.offer(new Subscription(subscriber, null));
+        schedule();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public void clear() {
+        subscribers.clear();
+        releaseEvents();
+        size.set(0);
+    }
+
+    private void releaseEvents() {
+        Object event;
+        while ((event = events.poll()) != null) {
+            release(event);
+        }
+    }
+
+    private void release(Object event) {
+        if (event instanceof RtmpChunkCache) {
+            ((RtmpChunkCache) event).release();
+        } else {
+            Subscription subscription = (Subscription) event;
+            if (subscription.gop != null) {
+                for (RtmpChunkCache chunkCache : subscription.gop) {
+                    chunkCache.release();
+                }
+            }
+        }
+    }
+
+    private void schedule() {
+        if (executor == null) {
+            // notify inline, unless another thread is already draining
+            while (!events.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    while (!events.isEmpty()) {
+                        drain();
+                    }
+                } finally {
+                    scheduled.set(false);
+                }
+            }
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                releaseEvents();
+            }
+        }
+    }
+
+    public void run() {
+        try {
+            drain();
+        } finally {
+            scheduled.set(false);
+        }
+        if (!events.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void drain() {
+        Object event;
+        for (int i = 0; i < MAX_DRAIN_EVENTS && (event = events.poll()) != null; i++) {
+            if (event instanceof RtmpChunkCache) {
+                RtmpChunkCache chunkCache = (RtmpChunkCache) event;
+                for (IMsgSubscriber subscriber : subscribers) {
+                    notify(subscriber, chunkCache);
+                }
+                chunkCache.release();
+            } else {
+                Subscription subscription = (Subscription) event;
+                if (subscription.gop == null) {
+                    if (subscribers.remove(subscription.subscriber)) {
+                        size.decrementAndGet();
+                    }
+                    continue;
+                }
+                for (RtmpChunkCache chunkCache : subscription.gop) {
+                    replay(subscription.subscriber, chunkCache);
+                    chunkCache.release();
+                }
+                subscribers.add(subscription.subscriber);
+            }
+        }
+    }
+
+    // stream subscribers share the chunks of the message
+    private void notify(IMsgSubscriber subscriber, RtmpChunkCache chunkCache) {
+        if (subscriber instanceof StreamSubscriber) {
+            ((StreamSubscriber) subscriber).messageNotify(chunkCache);
+        } else {
+            subscriber.messageNotify(chunkCache.getMessage());
+        }
+    }
+
+    private void replay(IMsgSubscriber subscriber, RtmpChunkCache chunkCache) {
+        if (subscriber instanceof StreamSubscriber) {
+            ((StreamSubscriber) subscriber).replayNotify(chunkCache);
+        } else {
+            subscriber.messageNotify(chunkCache.getMessage());
+        }
+    }
+
+}
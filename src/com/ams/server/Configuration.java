@@ -10,19 +10,43 @@ import java.util.Properties;
 public final class Configuration {
     private SocketProperties socketProperties = new SocketProperties();
     private int memPoolSize = 0;
+    private boolean memLeakDetection = false;
+    private String memAllocator = "slab";
     private int dispatcherThreadPoolSize = 8;
     private int workerThreadPoolSize = 16;
+    private String dispatcherPlacement = "least-bytes";
+    private boolean dispatcherReusePort = false;
+    private int netInboundHighWatermark = 1024 * 1024;
+    private int netInboundLowWatermark = 256 * 1024;
+    private int netOutboundHighWatermark = 1024 * 1024;
+    private int netOutboundLowWatermark = 256 * 1024;
+    private int netIdleTimeout = 30 * 60;
+    private int netReadBufferMin = 512;
+    private int netReadBufferMax = 64 * 1024;
 
     private String httpHost = null;
     private int httpPort = 80;
     private String httpContextRoot = "www";
+    private int httpKeepAliveTimeout = 15;
+    private String httpExecution = "pool";
     private String rtmpHost = null;
     private int rtmpPort = 1935;
     private int rtmptPort = 80;
 
     private String rtmpContextRoot = "video";
+    private int rtmpHandshakeTimeout = 10;
+    private int rtmpIdleTimeout = 30 * 60;
+    private String rtmpExecution = "pool";
+    private int rtmpReadMessages = 64;
+    private int rtmpReadBytes = 256 * 1024;
+    private int rtmpGopBytes = 4 * 1024 * 1024;
+    private int rtmpGopDuration = 10000;
+    private int rtmpSubscriberQueueBytes = 4 * 1024 * 1024;
+    private int rtmpSubscriberQueueTime = 10000;
+    private int rtmpSubscriberLagTime = 30000;
     private String replicationHost = null;
     private int replicationPort = 1936;
+    private int replicationIdleTimeout = 30 * 60;
     private String replicationMasterHost = null;
     private int replicationMasterPort = 1936;
     private String multicastGroupHost = null;
@@ -37,14 +61,58 @@ public final class Configuration {
             if (dispatchersProp != null) {
                 dispatcherThreadPoolSize = Integer.parseInt(dispatchersProp);
             }
+            String placementProp = prop.getProperty("dispatchers.placement");
+            if (placementProp != null) {
+                dispatcherPlacement = placementProp;
+            }
+            String reusePortProp = prop.getProperty("dispatchers.reuseport");
+            if (reusePortProp != null) {
+                dispatcherReusePort = Boolean.parseBoolean(reusePortProp);
+            }
             String workersProp = prop.getProperty("workers");
             if (workersProp != null) {
                 workerThreadPoolSize = Integer.parseInt(workersProp);
             }
+            String watermarkProp = prop.getProperty("net.inbound.watermark.high");
+            if (watermarkProp != null) {
+                netInboundHighWatermark = Integer.parseInt(watermarkProp) * 1024;
+            }
+            watermarkProp = prop.getProperty("net.inbound.watermark.low");
+            if (watermarkProp != null) {
+                netInboundLowWatermark = Integer.parseInt(watermarkProp) * 1024;
+            }
+            watermarkProp = prop.getProperty("net.outbound.watermark.high");
+            if (watermarkProp != null) {
+                netOutboundHighWatermark = Integer.parseInt(watermarkProp) * 1024;
+            }
+            watermarkProp = prop.getProperty("net.outbound.watermark.low");
+            if (watermarkProp != null) {
+                netOutboundLowWatermark = Integer.parseInt(watermarkProp) * 1024;
+            }
+            String readBufferProp = prop.getProperty("net.read.buffer.min");
+            if (readBufferProp != null) {
+                netReadBufferMin = Integer.parseInt(readBufferProp);
+            }
+            readBufferProp = prop.getProperty("net.read.buffer.max");
+            if (readBufferProp != null) {
+                netReadBufferMax = Integer.parseInt(readBufferProp);
+            }
+            String timeoutProp = prop.getProperty("net.idle.timeout");
+            if (timeoutProp != null) {
+                netIdleTimeout = Integer.parseInt(timeoutProp);
+            }
             String poolProp = prop.getProperty("mempool");
             if (poolProp != null) {
                 memPoolSize = Integer.parseInt(poolProp) * 1024 * 1024;
             }
+            String allocatorProp = prop.getProperty("mempool.allocator");
+            if (allocatorProp != null) {
+                memAllocator = allocatorProp;
+            }
+            String leakProp = prop.getProperty("mempool.leak.detection");
+            if (leakProp != null) {
+                memLeakDetection = Boolean.parseBoolean(leakProp);
+            }
             String hostProp = prop.getProperty("http.host");
             if (hostProp != null) {
                 httpHost = hostProp;
@@ -57,6 +125,14 @@ public final class Configuration {
             if (root != null) {
                 httpContextRoot = root;
             }
+            String executionProp = prop.getProperty("http.execution");
+            if (executionProp != null) {
+                httpExecution = executionProp;
+            }
+            timeoutProp = prop.getProperty("http.keepalive.timeout");
+            if (timeoutProp != null) {
+                httpKeepAliveTimeout = Integer.parseInt(timeoutProp);
+            }
 
             hostProp = prop.getProperty("rtmp.host");
             if (hostProp != null) {
@@ -77,6 +153,47 @@ public final class Configuration {
                 rtmpContextRoot = root;
             }
 
+            timeoutProp = prop.getProperty("rtmp.handshake.timeout");
+            if (timeoutProp != null) {
+                rtmpHandshakeTimeout = Integer.parseInt(timeoutProp);
+            }
+            timeoutProp = prop.getProperty("rtmp.idle.timeout");
+            if (timeoutProp != null) {
+                rtmpIdleTimeout = Integer.parseInt(timeoutProp);
+            }
+            executionProp = prop.getProperty("rtmp.execution");
+            if (executionProp != null) {
+                rtmpExecution = executionProp;
+            }
+            String budgetProp = prop.getProperty("rtmp.read.messages");
+            if (budgetProp != null) {
+                rtmpReadMessages = Integer.parseInt(budgetProp);
+            }
+            budgetProp = prop.getProperty("rtmp.read.bytes");
+            if (budgetProp != null) {
+                rtmpReadBytes = Integer.parseInt(budgetProp) * 1024;
+            }
+            String gopProp = prop.getProperty("rtmp.gop.bytes");
+            if (gopProp != null) {
+                rtmpGopBytes = Integer.parseInt(gopProp) * 1024;
+            }
+            gopProp = prop.getProperty("rtmp.gop.duration");
+            if (gopProp != null) {
+                rtmpGopDuration = Integer.parseInt(gopProp);
+            }
+            String queueProp = prop.getProperty("rtmp.subscriber.queue.bytes");
+            if (queueProp != null) {
+                rtmpSubscriberQueueBytes = Integer.parseInt(queueProp) * 1024;
+            }
+            queueProp = prop.getProperty("rtmp.subscriber.queue.time");
+            if (queueProp != null) {
+                rtmpSubscriberQueueTime = Integer.parseInt(queueProp);
+            }
+            queueProp = prop.getProperty("rtmp.subscriber.lag.time");
+            if (queueProp != null) {
+                rtmpSubscriberLagTime = Integer.parseInt(queueProp);
+            }
+
             hostProp = prop.getProperty("repl.ucast.host");
             if (hostProp != null) {
                 replicationHost = hostProp;
@@ -86,6 +203,10 @@ public final class Configuration {
             if (portProp != null) {
                 replicationPort = Integer.parseInt(portProp);
             }
+            timeoutProp = prop.getProperty("repl.idle.timeout");
+            if (timeoutProp != null) {
+                replicationIdleTimeout = Integer.parseInt(timeoutProp);
+            }
 
             hostProp = prop.getProperty("repl.ucast.master.host");
             if (hostProp != null) {
@@ -118,6 +239,50 @@ public final class Configuration {
         return memPoolSize;
     }
 
+    public String getDispatcherPlacement() {
+        return dispatcherPlacement;
+    }
+
+    public boolean isDispatcherReusePort() {
+        return dispatcherReusePort;
+    }
+
+    public String getMemAllocator() {
+        return memAllocator;
+    }
+
+    public int getNetInboundHighWatermark() {
+        return netInboundHighWatermark;
+    }
+
+    public int getNetInboundLowWatermark() {
+        return netInboundLowWatermark;
+    }
+
+    public int getNetOutboundHighWatermark() {
+        return netOutboundHighWatermark;
+    }
+
+    public int getNetOutboundLowWatermark() {
+        return netOutboundLowWatermark;
+    }
+
+    public int getNetReadBufferMin() {
+        return netReadBufferMin;
+    }
+
+    public int getNetReadBufferMax() {
+        return netReadBufferMax;
+    }
+
+    public int getNetIdleTimeout() {
+        return netIdleTimeout;
+    }
+
+    public boolean isMemLeakDetection() {
+        return memLeakDetection;
+    }
+
     public int getDispatcherThreadPoolSize() {
         return dispatcherThreadPoolSize;
     }
@@ -134,6 +299,14 @@ public final class Configuration {
         return httpPort;
     }
 
+    public String getHttpExecution() {
+        return httpExecution;
+    }
+
+    public int getHttpKeepAliveTimeout() {
+        return httpKeepAliveTimeout;
+    }
+
     public String getHttpContextRoot() {
         return httpContextRoot;
     }
@@ -150,6 +323,46 @@ public final class Configuration {
         return rtmpContextRoot;
     }
 
+    public int getRtmpHandshakeTimeout() {
+        return rtmpHandshakeTimeout;
+    }
+
+    public int getRtmpIdleTimeout() {
+        return rtmpIdleTimeout;
+    }
+
+    public String getRtmpExecution() {
+        return rtmpExecution;
+    }
+
+    public int getRtmpReadMessages() {
+        return rtmpReadMessages;
+    }
+
+    public int getRtmpReadBytes() {
+        return rtmpReadBytes;
+    }
+
+    public int getRtmpGopBytes() {
+        return rtmpGopBytes;
+    }
+
+    public int getRtmpGopDuration() {
+        return rtmpGopDuration;
+    }
+
+    public int getRtmpSubscriberQueueBytes() {
+        return rtmpSubscriberQueueBytes;
+    }
+
+    public int getRtmpSubscriberQueueTime() {
+        return rtmpSubscriberQueueTime;
+    }
+
+    public int getRtmpSubscriberLagTime() {
+        return rtmpSubscriberLagTime;
+    }
+
     public int getRtmptPort() {
         return rtmptPort;
     }
@@ -166,6 +379,10 @@ public final class Configuration {
         return replicationPort;
     }
 
+    public int getReplicationIdleTimeout() {
+        return replicationIdleTimeout;
+    }
+
     public String getReplicationMasterHost() {
         return replicationMasterHost;
     }
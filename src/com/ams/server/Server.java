@@ -10,7 +10,17 @@ import org.slf4j.LoggerFactory;
 
 import com.ams.io.buffer.ByteBufferAllocator;
 import com.ams.io.buffer.ByteBufferFactory;
+import com.ams.io.buffer.SlabByteBufferAllocator;
 import com.ams.io.network.Acceptor;
+import com.ams.io.network.Connection;
+import com.ams.io.network.Dispatcher;
+import com.ams.io.network.IDispatcherPlacement;
+import com.ams.io.network.LeastBytesPlacement;
+import com.ams.io.network.LeastConnectionsPlacement;
+import com.ams.io.network.NetworkConnection;
+import com.ams.io.network.RoundRobinPlacement;
+import com.ams.protocol.rtmp.net.StreamPublisher;
+import com.ams.protocol.rtmp.net.StreamSubscriber;
 import com.ams.server.service.IProtocolService;
 import com.ams.server.service.http.HttpService;
 import com.ams.server.service.rtmp.RtmpService;
@@ -28,6 +38,10 @@ public class Server {
         this.acceptors = new ArrayList<Acceptor>();
 
         initByteBufferFactory(config);
+        Connection.setWatermarks(config.getNetInboundHighWatermark(), config.getNetInboundLowWatermark(),
+                config.getNetOutboundHighWatermark(), config.getNetOutboundLowWatermark());
+        NetworkConnection.setReadBufferSize(config.getNetReadBufferMin(), config.getNetReadBufferMax());
+        initIdleTimeouts(config);
         
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -37,19 +51,53 @@ public class Server {
     }
 
     private void initByteBufferFactory(Configuration config) {
-        ByteBufferAllocator allocator = new ByteBufferAllocator();
-        if (config.getMemPoolSize() > 0) {
+        if ("chunk".equals(config.getMemAllocator())) {
+            ByteBufferAllocator allocator = new ByteBufferAllocator();
+            if (config.getMemPoolSize() > 0) {
+                allocator.setPoolSize(config.getMemPoolSize());
+            }
+            allocator.setLeakDetection(config.isMemLeakDetection());
+            allocator.init();
+            ByteBufferFactory.setAllocator(allocator);
+        } else {
+            SlabByteBufferAllocator allocator = new SlabByteBufferAllocator();
             allocator.setPoolSize(config.getMemPoolSize());
+            allocator.setLeakDetection(config.isMemLeakDetection());
+            allocator.init();
+            ByteBufferFactory.setAllocator(allocator);
         }
-        allocator.init();
-        ByteBufferFactory.setAllocator(allocator);
+    }
+
+    private void initIdleTimeouts(Configuration config) {
+        Dispatcher.setIdleTimeout(Connection.IDLE_DEFAULT, config.getNetIdleTimeout() * 1000L);
+        Dispatcher.setIdleTimeout(Connection.IDLE_KEEP_ALIVE, config.getHttpKeepAliveTimeout() * 1000L);
+        Dispatcher.setIdleTimeout(Connection.IDLE_HANDSHAKE, config.getRtmpHandshakeTimeout() * 1000L);
+        Dispatcher.setIdleTimeout(Connection.IDLE_SESSION, config.getRtmpIdleTimeout() * 1000L);
+        Dispatcher.setIdleTimeout(Connection.IDLE_REPLICATION, config.getReplicationIdleTimeout() * 1000L);
+    }
+
+    private IDispatcherPlacement createPlacement(String placement) {
+        if ("round-robin".equals(placement)) {
+            return new RoundRobinPlacement();
+        } else if ("least-connections".equals(placement)) {
+            return new LeastConnectionsPlacement();
+        }
+        return new LeastBytesPlacement();
     }
 
     private void addTcpListenEndpoint(SocketAddress endpoint,
             IProtocolService processor) throws IOException {
+        addTcpListenEndpoint(endpoint, processor, Connection.IDLE_DEFAULT);
+    }
+
+    private void addTcpListenEndpoint(SocketAddress endpoint,
+            IProtocolService processor, int idleClass) throws IOException {
         int dispatcherSize = config.getDispatcherThreadPoolSize();
         Acceptor acceptor = new Acceptor(endpoint, dispatcherSize, processor);
+        acceptor.setIdleClass(idleClass);
         acceptor.setSocketProperties(config.getSocketProperties());
+        acceptor.setPlacement(createPlacement(config.getDispatcherPlacement()));
+        acceptor.setReusePort(config.isDispatcherReusePort());
         acceptors.add(acceptor);
     }
 
@@ -59,8 +107,9 @@ public class Server {
             if (config.getHttpHost() != null) {
                 SocketAddress httpEndpoint = new InetSocketAddress(
                         config.getHttpHost(), config.getHttpPort());
-                addTcpListenEndpoint(httpEndpoint,
-                        new HttpService(config.getHttpContextRoot(), config.getWokerThreadPoolSize()));
+                HttpService httpService = new HttpService(config.getHttpContextRoot(), config.getWokerThreadPoolSize());
+                httpService.setThreadPerConnection("virtual".equals(config.getHttpExecution()));
+                addTcpListenEndpoint(httpEndpoint, httpService);
             }
         } catch (Exception e) {
             logger.info("Creating http service failed.");
@@ -70,8 +119,15 @@ public class Server {
         try {
             if (config.getRtmpHost() != null) {
                 SocketAddress rtmpEndpoint = new InetSocketAddress(config.getRtmpHost(), config.getRtmpPort());
-                addTcpListenEndpoint(rtmpEndpoint,
-                        new RtmpService(config.getRtmpContextRoot(), config.getWokerThreadPoolSize()));
+                RtmpService rtmpService = new RtmpService(config.getRtmpContextRoot(), config.getWokerThreadPoolSize());
+                rtmpService.setReadBudget(config.getRtmpReadMessages(), config.getRtmpReadBytes());
+                rtmpService.setExecution(config.getRtmpExecution());
+                StreamPublisher.setGopCacheLimit(config.getRtmpGopBytes(), config.getRtmpGopDuration());
+                StreamSubscriber.setQueueLimit(config.getRtmpSubscriberQueueBytes(),
+                        config.getRtmpSubscriberQueueTime(), config.getRtmpSubscriberLagTime());
+                StreamPublisher.setFanout(rtmpService.getExecutor(), config.getDispatcherThreadPoolSize());
+                // a client that never completes the handshake expires early
+                addTcpListenEndpoint(rtmpEndpoint, rtmpService, Connection.IDLE_HANDSHAKE);
             }
         } catch (Exception e) {
             logger.info("Creating rtmp service failed.");
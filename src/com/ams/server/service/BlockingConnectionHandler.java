@@ -0,0 +1,86 @@
+package com.ams.server.service;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ams.io.network.Connection;
+import com.ams.io.network.ConnectionReadyListener;
+
+/**
+ * Runs a connection handler in a loop on a thread of its own, parking
+ * between runs until the connection is ready or the delay requested by the
+ * handler expires. Same handle() contract as ConnectionHandler.
+ */
+public abstract class BlockingConnectionHandler implements Runnable, ConnectionReadyListener {
+    protected Connection connection;
+    private ThreadFactory threadFactory;
+    private volatile Thread thread = null;
+    private AtomicBoolean pending = new AtomicBoolean(true);
+
+    public BlockingConnectionHandler(Connection connection, ThreadFactory threadFactory) {
+        this.connection = connection;
+        this.threadFactory = threadFactory;
+    }
+
+    public void start() {
+        thread = threadFactory.newThread(this);
+        connection.setReadyListener(this);
+        thread.start();
+    }
+
+    @Override
+    public void onConnectionReady(Connection conn) {
+        pending.set(true);
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    public void run() {
+        try {
+            while (!connection.isClosed()) {
+                pending.set(false);
+                long available = connection.readAvailable();
+                long delay = handle();
+                // more complete data may be buffered, run again
+                long remain = connection.readAvailable();
+                if (delay == 0 || (remain > 0 && remain < available)) {
+                    continue;
+                }
+                await(delay);
+            }
+        } finally {
+            connection.setReadyListener(null);
+            thread = null;
+            onClose();
+            connection.releaseInbound();
+        }
+    }
+
+    private void await(long delay) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        while (!pending.get() && !connection.isClosed()) {
+            if (delay < 0) {
+                LockSupport.park(this);
+            } else {
+                long timeout = deadline - System.nanoTime();
+                if (timeout <= 0) {
+                    return;
+                }
+                LockSupport.parkNanos(this, timeout);
+            }
+        }
+    }
+
+    /**
+     * Process the ready connection.
+     * @return delay in ms before the handler wants to run again, -1 waits for the next event
+     */
+    protected abstract long handle();
+
+    protected void onClose() {
+    }
+}
@@ -0,0 +1,114 @@
+package com.ams.server.service;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ams.io.network.Connection;
+import com.ams.io.network.ConnectionReadyListener;
+
+/**
+ * Runs a connection handler only when the connection is ready: new bytes
+ * arrived, the outbound queue drained, or a timer requested by the handler
+ * expired. Never runs concurrently with itself.
+ */
+public abstract class ConnectionHandler implements Runnable, ConnectionReadyListener {
+    protected Connection connection;
+    private volatile ScheduledExecutorService executor;
+    private AtomicBoolean scheduled = new AtomicBoolean(false);
+    private AtomicBoolean pending = new AtomicBoolean(false);
+    private ScheduledFuture<?> timer = null;
+    private boolean closed = false;
+
+    public ConnectionHandler(Connection connection, ScheduledExecutorService executor) {
+        this.connection = connection;
+        this.executor = executor;
+    }
+
+    public void start() {
+        connection.setReadyListener(this);
+        schedule();
+    }
+
+    @Override
+    public void onConnectionReady(Connection conn) {
+        schedule();
+    }
+
+    public void schedule() {
+        pending.set(true);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    private synchronized void scheduleTimer(long delay) {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        timer = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                schedule();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    public void run() {
+        pending.set(false);
+        try {
+            if (closed) {
+                return;
+            }
+            if (connection.isClosed()) {
+                closed = true;
+                connection.setReadyListener(null);
+                cancelTimer();
+                onClose();
+                connection.releaseInbound();
+                return;
+            }
+            long available = connection.readAvailable();
+            long delay = handle();
+            // more complete data may be buffered, run again
+            long remain = connection.readAvailable();
+            if (remain > 0 && remain < available) {
+                pending.set(true);
+            }
+            if (delay == 0) {
+                pending.set(true);
+            } else if (delay > 0) {
+                scheduleTimer(delay);
+            }
+        } finally {
+            scheduled.set(false);
+            if (pending.get() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+    }
+
+    /**
+     * Move the handler to another executor, takes effect from its next run.
+     */
+    protected void setExecutor(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Process the ready connection.
+     * @return delay in ms before the handler wants to run again, -1 waits for the next event
+     */
+    protected abstract long handle();
+
+    protected void onClose() {
+    }
+}
@@ -0,0 +1,67 @@
+package com.ams.server.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ams.io.buffer.ByteBufferFactory;
+
+/**
+ * Creates a virtual thread per connection. Only usable when the running JDK
+ * has virtual threads, see checkAvailable(); a platform thread per connection
+ * is never used instead.
+ */
+public class ConnectionThreadFactory implements ThreadFactory {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionThreadFactory.class);
+
+    private static final boolean available = createVirtualThreadFactory("probe") != null;
+
+    private ThreadFactory virtualThreadFactory;
+
+    public ConnectionThreadFactory(String name) {
+        this.virtualThreadFactory = createVirtualThreadFactory(name);
+        if (virtualThreadFactory == null) {
+            throw new IllegalStateException("virtual threads are not available");
+        }
+    }
+
+    /**
+     * Whether connections of a service may run on virtual threads, warns
+     * when the running JDK has none.
+     */
+    public static boolean checkAvailable(String name) {
+        if (!available) {
+            logger.warn("virtual threads are not available, {} connections run on the worker pool", name);
+        }
+        return available;
+    }
+
+    private static ThreadFactory createVirtualThreadFactory(String name) {
+        // Thread.ofVirtual().name(name, 0).factory(), looked up at runtime
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public Thread newThread(final Runnable r) {
+        // connection threads are short lived, hand their cached buffers back
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    r.run();
+                } finally {
+                    ByteBufferFactory.releaseThreadCache();
+                }
+            }
+        };
+        return virtualThreadFactory.newThread(task);
+    }
+}
@@ -13,6 +13,7 @@ import com.ams.io.network.NetworkConnection;
 import com.ams.protocol.http.HttpRequest;
 import com.ams.protocol.http.HttpResponse;
 import com.ams.protocol.http.ServletContext;
+import com.ams.server.service.ConnectionThreadFactory;
 import com.ams.server.service.IProtocolService;
 
 public class HttpService implements IProtocolService {
@@ -22,6 +23,7 @@ public class HttpService implements IProtocolService {
     private static final int QUEUE_SIZE = 256;
     private ServletContext context;
     private ThreadPoolExecutor executor;
+    private ConnectionThreadFactory threadFactory = null;
     
     public HttpService(String contextRoot, int maxPoolSize) throws IOException {
         this.context = new ServletContext(contextRoot);
@@ -40,18 +42,34 @@ public class HttpService implements IProtocolService {
                 try {
                     request.parse();
                     servlet.service(request, response);
-                    if (request.isKeepAlive()) {
-                        connection.close(true);
-                    } else {
-                        connection.close();
-                    }
                 } catch (IOException e) {
                     logger.debug(e.getMessage());
+                    connection.releaseInbound();
+                    connection.close();
+                    return;
+                }
+                // before closing, the dispatcher reopens the connection on the next request
+                connection.releaseInbound();
+                if (request.isKeepAlive()) {
+                    connection.close(true);
+                } else {
                     connection.close();
                 }
             }
         };
-        executor.execute(handler);
+        if (threadFactory != null) {
+            // a blocking thread of its own for each request
+            threadFactory.newThread(handler).start();
+        } else {
+            executor.execute(handler);
+        }
+    }
+
+    public void setThreadPerConnection(boolean threadPerConnection) {
+        if (threadPerConnection && !ConnectionThreadFactory.checkAvailable("http")) {
+            threadPerConnection = false;
+        }
+        this.threadFactory = threadPerConnection ? new ConnectionThreadFactory("http") : null;
     }
 
     @Override
@@ -1,9 +1,8 @@
 package com.ams.server.service.rtmp;
 
 import java.io.IOException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +12,9 @@ import com.ams.protocol.rtmp.RtmpConnection;
 import com.ams.protocol.rtmp.RtmpException;
 import com.ams.protocol.rtmp.net.NetConnection;
 import com.ams.protocol.rtmp.net.NetContext;
+import com.ams.server.service.BlockingConnectionHandler;
+import com.ams.server.service.ConnectionHandler;
+import com.ams.server.service.ConnectionThreadFactory;
 import com.ams.server.service.IProtocolService;
 
 public class RtmpService implements IProtocolService {
@@ -20,45 +22,118 @@ public class RtmpService implements IProtocolService {
 
     private NetContext context;
     private ScheduledThreadPoolExecutor executor;
+    private int maxReadMessages = 0;
+    private int maxReadBytes = 0;
+    public static final String EXECUTION_POOL = "pool";
+    public static final String EXECUTION_INLINE = "inline";
+    public static final String EXECUTION_VIRTUAL = "virtual";
+
+    private String execution = EXECUTION_POOL;
+    private ConnectionThreadFactory threadFactory = null;
 
     public RtmpService(String contextRoot, int poolSize) {
         this.context = new NetContext(contextRoot);
         this.executor = new ScheduledThreadPoolExecutor(poolSize);
+        this.executor.setRemoveOnCancelPolicy(true);
    }
     
     @Override
     public void invoke(final Connection connection) {
         logger.debug("invoke a rtmp connection service");
+        connection.setIdleClass(Connection.IDLE_HANDSHAKE);
         final RtmpConnection rtmp = new RtmpConnection(connection);
         final NetConnection netConnection = new NetConnection(rtmp, context);
-        final Future<?> futures[] = new Future<?>[1];
-        Runnable handler = new Runnable() {
-            @Override
-            public void run() {
-                if (connection.isClosed()) {
-                   if (futures[0] != null) {
-                       futures[0].cancel(true);
-                       logger.debug("rtmp handle cancelled");
-                   }
-                   return;
+        if (maxReadMessages > 0 && maxReadBytes > 0) {
+            netConnection.setReadBudget(maxReadMessages, maxReadBytes);
+        }
+        if (EXECUTION_VIRTUAL.equals(execution)) {
+            BlockingConnectionHandler handler = new BlockingConnectionHandler(connection, getThreadFactory()) {
+                @Override
+                protected long handle() {
+                    return RtmpService.this.handle(connection, netConnection);
                 }
-                try {
-                    // read & process rtmp message
-                    netConnection.readAndProcessRtmpMessage();
-                    // write client video/audio streams
-                    netConnection.playStreams();
-                    connection.flush();
-                } catch (IOException e) {
-                    logger.debug(e.getMessage());
+
+                @Override
+                protected void onClose() {
                     netConnection.close();
-                    connection.close();
-                } catch (RtmpException e) {
-                    logger.debug(e.getMessage());
+                    logger.debug("rtmp handle cancelled");
+                }
+            };
+            handler.start();
+            return;
+        }
+        // run on the dispatcher thread owning the socket in inline mode
+        final ScheduledExecutorService eventLoop = EXECUTION_INLINE.equals(execution)
+                ? connection.getEventLoop() : null;
+        if (eventLoop != null) {
+            netConnection.setBlockingAllowed(false);
+        }
+        ConnectionHandler handler = new ConnectionHandler(connection,
+                eventLoop != null ? eventLoop : executor) {
+            @Override
+            protected long handle() {
+                long delay = RtmpService.this.handle(connection, netConnection);
+                if (eventLoop != null) {
+                    // opening, seeking, playing and recording files stays off the dispatcher
+                    boolean pooled = netConnection.hasDeferredCommand() || netConnection.hasPlayers()
+                            || netConnection.hasRecorders();
+                    netConnection.setBlockingAllowed(pooled);
+                    setExecutor(pooled ? RtmpService.this.executor : eventLoop);
+                    if (netConnection.hasDeferredCommand()) {
+                        delay = 0; // run the deferred command on the pool
+                    }
                 }
-                
+                return delay;
+            }
+
+            @Override
+            protected void onClose() {
+                netConnection.close();
+                logger.debug("rtmp handle cancelled");
             }
         };
-        futures[0] = executor.scheduleWithFixedDelay(handler, 0, 100, TimeUnit.MICROSECONDS);
+        handler.start();
+    }
+
+    private long handle(Connection connection, NetConnection netConnection) {
+        long delay = -1;
+        try {
+            // read & process rtmp message
+            netConnection.readAndProcessRtmpMessage();
+            // write client video/audio streams
+            delay = netConnection.playStreams();
+            connection.flush();
+        } catch (IOException e) {
+            logger.debug(e.getMessage());
+            netConnection.close();
+            connection.close();
+        } catch (RtmpException e) {
+            logger.debug(e.getMessage());
+        }
+        return delay;
+    }
+
+    private synchronized ConnectionThreadFactory getThreadFactory() {
+        if (threadFactory == null) {
+            threadFactory = new ConnectionThreadFactory("rtmp");
+        }
+        return threadFactory;
+    }
+
+    public ScheduledThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public void setReadBudget(int maxReadMessages, int maxReadBytes) {
+        this.maxReadMessages = maxReadMessages;
+        this.maxReadBytes = maxReadBytes;
+    }
+
+    public void setExecution(String execution) {
+        if (EXECUTION_VIRTUAL.equals(execution) && !ConnectionThreadFactory.checkAvailable("rtmp")) {
+            execution = EXECUTION_POOL;
+        }
+        this.execution = execution;
     }
 
     @Override
@@ -2,7 +2,8 @@ package com.ams.server.service.rtmp.replication;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.concurrent.Future;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,46 +18,56 @@ import com.ams.protocol.rtmp.net.NetConnection;
 import com.ams.protocol.rtmp.net.NetStream;
 import com.ams.protocol.rtmp.net.PublisherManager;
 import com.ams.protocol.rtmp.net.StreamPublisher;
+import com.ams.server.service.ConnectionHandler;
 
-public class ReplMasterHandler implements Runnable {
+public class ReplMasterHandler extends ConnectionHandler {
     final private Logger logger = LoggerFactory.getLogger(ReplMasterHandler.class);
 
-    private Connection connection;
+    private static long CHECK_PUBLISHER_INTERVAL = 1000;
+    private static int MAX_READ_MESSAGES = 64;
     private RtmpConnection rtmp;
     private NetConnection netConn;
     private HashMap<String, ReplStreamSubscriber> streamSubscribers = new HashMap<String, ReplStreamSubscriber>();
-    private Future<?> future;
     
-    public ReplMasterHandler(Connection connection) {
-        this.connection =connection;
+    public ReplMasterHandler(Connection connection, ScheduledExecutorService executor) {
+        super(connection, executor);
         this.rtmp = new RtmpConnection(connection);
         this.netConn = new NetConnection(rtmp, null);
     }
 
-    public void run() {
-        if (connection.isClosed()) {
-            if (future != null) {
-                future.cancel(true);
-                logger.debug("rtmp repl master handle cancelled");
-            }
-            return;
-         }
-
+    protected long handle() {
         try {
-            receive();
+            for (int i = 0; i < MAX_READ_MESSAGES && receive(); i++);
             send();
             connection.flush();
         } catch (Exception e) {
             logger.debug(e.getMessage());
             connection.close();
         }
+        // check closed publishers periodically
+        return CHECK_PUBLISHER_INTERVAL;
     }
 
-    private void receive() throws IOException, RtmpException {
+    @Override
+    protected void onClose() {
+        rtmp.releaseChunkData();
+        logger.debug("rtmp repl master handle cancelled");
+    }
+
+    private boolean receive() throws IOException, RtmpException {
+        long available = rtmp.getConnection().readAvailable();
         if (!rtmp.readRtmpMessage())
-            return;
+            return rtmp.getConnection().readAvailable() < available;
         RtmpMessage message = rtmp.getCurrentMessage();
+        try {
+            process(message);
+        } finally {
+            message.release();
+        }
+        return true;
+    }
 
+    private void process(RtmpMessage message) {
         switch (message.getType()) {
         case RtmpMessage.MESSAGE_AMF0_COMMAND:
             RtmpMessageCommand command = (RtmpMessageCommand) message;
@@ -82,17 +93,19 @@ public class ReplMasterHandler implements Runnable {
                 }
             }
         }
-        
     }
     
     private void send() {
         try {
             // try to close stream
-            for (String publishName : streamSubscribers.keySet()) {
+            Iterator<String> it = streamSubscribers.keySet().iterator();
+            while (it.hasNext()) {
+                String publishName = it.next();
                 ReplStreamSubscriber subscriber = streamSubscribers.get(publishName);
                 if (PublisherManager.getInstance().getPublisher(publishName) == null) {
                     subscriber.sendCloseStreamCommand();
-                    streamSubscribers.remove(publishName);
+                    netConn.closeStream(subscriber.getStream());
+                    it.remove();
                 }
             }
         } catch (Exception e) {
@@ -101,9 +114,4 @@ public class ReplMasterHandler implements Runnable {
         }
     }    
 
-    public void setFuture(Future<?> future) {
-        this.future = future;
-    }
-
-
 }
\ No newline at end of file
@@ -1,9 +1,7 @@
 package com.ams.server.service.rtmp.replication;
 
 import java.io.IOException;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import com.ams.io.network.Connection;
 import com.ams.server.service.IProtocolService;
@@ -13,13 +11,14 @@ public class ReplMasterService implements IProtocolService {
     
     public ReplMasterService() throws IOException {
         this.executor = new ScheduledThreadPoolExecutor(16);
+        this.executor.setRemoveOnCancelPolicy(true);
     }
 
 	@Override
     public void invoke(Connection connection) {
-        ReplMasterHandler handler = new ReplMasterHandler(connection);
-        Future<?> future = executor.scheduleWithFixedDelay(handler, 0, 100, TimeUnit.MICROSECONDS);
-        handler.setFuture(future);
+        connection.setIdleClass(Connection.IDLE_REPLICATION);
+        ReplMasterHandler handler = new ReplMasterHandler(connection, executor);
+        handler.start();
     }
 
 	@Override
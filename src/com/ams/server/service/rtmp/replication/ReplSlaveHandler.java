@@ -21,6 +21,7 @@ import com.ams.protocol.rtmp.net.PublisherManager;
 public class ReplSlaveHandler implements Runnable {
     private final Logger logger = LoggerFactory.getLogger(ReplSlaveHandler.class);
 
+    private static int MAX_READ_MESSAGES = 64;
     private ClientNetworkConnection connection;
     private RtmpConnection rtmp;
     private HashMap<Integer, String> publishingStreams = new HashMap<Integer, String>();
@@ -38,6 +39,7 @@ public class ReplSlaveHandler implements Runnable {
             InetSocketAddress remote = connection.getRemoteAddress();
             logger.info("connect to master {}:{} ...", remote.getHostString(), remote.getPort());
             connection.connect();
+            connection.setIdleClass(ClientNetworkConnection.IDLE_REPLICATION);
             logger.info("connected");
         } catch (IOException e) {
             logger.info("connect master error");
@@ -59,22 +61,32 @@ public class ReplSlaveHandler implements Runnable {
         }
 
         try {
-            receive();
+            for (int i = 0; i < MAX_READ_MESSAGES && receive(); i++);
             send();
             connection.flush();
         } catch (Exception e) {
             e.printStackTrace();
             logger.debug(e.getMessage());
             connection.close();
+            rtmp.releaseChunkData();
         }
     }
 
-    private void receive() throws IOException, RtmpException {
+    private boolean receive() throws IOException, RtmpException {
+        long available = rtmp.getConnection().readAvailable();
         if (!rtmp.readRtmpMessage())
-            return;
+            return rtmp.getConnection().readAvailable() < available;
         RtmpHeader header = rtmp.getCurrentHeader();
         RtmpMessage message = rtmp.getCurrentMessage();
+        try {
+            process(header, message);
+        } finally {
+            message.release();
+        }
+        return true;
+    }
 
+    private void process(RtmpHeader header, RtmpMessage message) throws IOException {
         switch (message.getType()) {
         case RtmpMessage.MESSAGE_AMF0_COMMAND:
             RtmpMessageCommand command = (RtmpMessageCommand) message;
@@ -2,7 +2,7 @@ package com.ams.server.service.rtmp.replication;
 
 import java.io.IOException;
 
-import com.ams.media.MediaMessage;
+import com.ams.protocol.rtmp.RtmpChunkCache;
 import com.ams.protocol.rtmp.amf.AmfValue;
 import com.ams.protocol.rtmp.message.RtmpMessage;
 import com.ams.protocol.rtmp.message.RtmpMessageCommand;
@@ -20,8 +20,8 @@ class ReplStreamSubscriber extends StreamSubscriber {
         keepaliveTime = System.currentTimeMillis();
     }
 
-    public void messageNotify(MediaMessage msg) {
-        super.messageNotify(msg);
+    public void messageNotify(RtmpChunkCache chunkCache) {
+        super.messageNotify(chunkCache);
 
         if (publishCommandTimer && isTimeout()) {
             sendPublishCommand();
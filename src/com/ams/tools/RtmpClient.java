@@ -3,7 +3,6 @@ package com.ams.tools;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -12,6 +11,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ams.io.buffer.PooledBuffer;
 import com.ams.io.network.NetworkConnection;
 import com.ams.io.network.NetworkConnectionListener;
 import com.ams.io.network.ClientNetworkConnection;
@@ -165,7 +165,7 @@ public class RtmpClient {
                 listener.onError("connect rtmp server error:" + error);
             }
             @Override
-            public void onConnectionDataReceived(NetworkConnection conn, ByteBuffer[] buffers) {
+            public void onConnectionDataReceived(NetworkConnection conn, PooledBuffer[] buffers) {
             }
         });
     }
@@ -0,0 +1,78 @@
+package com.ams.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Unbounded lock-free queue for exactly one producer thread and one consumer
+ * thread. Iteration is only safe from the consumer.
+ */
+public class SpscQueue<T> implements Iterable<T> {
+    private static class Node<T> {
+        private T value;
+        private volatile Node<T> next;
+
+        public Node(T value) {
+            this.value = value;
+        }
+    }
+
+    // consumer side, head is a sentinel whose next is the first element
+    private Node<T> head;
+    // producer side
+    private Node<T> tail;
+
+    public SpscQueue() {
+        head = tail = new Node<T>(null);
+    }
+
+    public void offer(T value) {
+        Node<T> node = new Node<T>(value);
+        // the volatile write publishes the value to the consumer
+        tail.next = node;
+        tail = node;
+    }
+
+    public T peek() {
+        Node<T> node = head.next;
+        return node == null ? null : node.value;
+    }
+
+    public T poll() {
+        Node<T> node = head.next;
+        if (node == null) {
+            return null;
+        }
+        T value = node.value;
+        node.value = null;
+        head = node;
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private Node<T> node = head.next;
+
+            public boolean hasNext() {
+                return node != null;
+            }
+
+            public T next() {
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                T value = node.value;
+                node = node.next;
+                return value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package com.ams.protocol.rtmp;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.ams.io.ByteBufferInputStream;
+import com.ams.io.ByteBufferOutputStream;
+import com.ams.io.buffer.DataBuffer;
+
+/**
+ * Writes chunk headers with RtmpHeaderSerializer and reads them back with
+ * RtmpHeaderDeserializer, checking the header format chosen on the wire and
+ * the decoded fields. Headers written by peers (type 3 after type 0 or type 2,
+ * continuation chunks) are encoded by hand. Exits with status 1 on failure.
+ */
+public class RtmpHeaderRoundTrip {
+    private static final long EXTENDED = 0x00FFFFFF;
+
+    private DataBuffer wire = new DataBuffer();
+    private ByteBufferOutputStream out = new ByteBufferOutputStream(wire);
+    private ByteBufferInputStream in = new ByteBufferInputStream(wire);
+    private HashMap<Integer, RtmpChunkData> chunkDataMap = new HashMap<Integer, RtmpChunkData>();
+    private RtmpHeaderSerializer serializer = new RtmpHeaderSerializer(out);
+    private RtmpHeaderDeserializer deserializer = new RtmpHeaderDeserializer(in,
+            new HashMap<Integer, RtmpHeader>(), chunkDataMap);
+    private int failures = 0;
+
+    private void check(String name, boolean ok, Object actual) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAIL " + name + ": " + actual);
+        }
+    }
+
+    // write a header, check the format used and read it back
+    private void roundTrip(String name, int chunkStreamId, long timestamp, int size,
+            int type, int streamId, int expectedFmt) throws IOException {
+        serializer.write(new RtmpHeader(chunkStreamId, timestamp, size, type, streamId));
+        out.flush();
+        int fmt = (wire.get(0) & 0xFF) >>> 6;
+        check(name + " fmt", fmt == expectedFmt, fmt);
+        RtmpHeader header = deserializer.read();
+        check(name + " csid", header.getChunkStreamId() == chunkStreamId, header);
+        check(name + " timestamp", header.getTimestamp() == timestamp, header);
+        check(name + " size", header.getSize() == size, header);
+        check(name + " type", header.getType() == type, header);
+        check(name + " stream id", header.getStreamId() == streamId, header);
+        check(name + " consumed", !wire.hasRemaining(), wire.remaining());
+    }
+
+    // a header as a peer writes it, fields are -1 when absent from the format
+    private RtmpHeader readRaw(int fmt, int chunkStreamId, long timestamp, int size,
+            int type, int streamId) throws IOException {
+        out.writeByte(fmt << 6 | chunkStreamId);
+        if (fmt != 3) {
+            out.write24Bit((int) Math.min(timestamp, EXTENDED));
+        }
+        if (fmt == 0 || fmt == 1) {
+            out.write24Bit(size);
+            out.writeByte(type);
+        }
+        if (fmt == 0) {
+            out.write32BitLittleEndian(streamId);
+        }
+        if (fmt != 3 && timestamp >= EXTENDED) {
+            out.write32Bit(timestamp);
+        }
+        out.flush();
+        RtmpHeader header = deserializer.read();
+        check("raw fmt " + fmt + " consumed", !wire.hasRemaining(), wire.remaining());
+        return header;
+    }
+
+    private void testRoundTrip() throws IOException {
+        roundTrip("first", 4, 1000, 100, 9, 1, 0);
+        roundTrip("new delta", 4, 1040, 100, 9, 1, 2);
+        roundTrip("same delta", 4, 1080, 100, 9, 1, 3);
+        roundTrip("same delta again", 4, 1120, 100, 9, 1, 3);
+        roundTrip("new size", 4, 1160, 200, 9, 1, 1);
+        roundTrip("new type", 4, 1200, 200, 8, 1, 1);
+        roundTrip("zero delta", 4, 1200, 200, 8, 1, 2);
+        roundTrip("new stream", 4, 1240, 200, 8, 2, 0);
+        roundTrip("timestamp backwards", 4, 500, 200, 8, 2, 0);
+        roundTrip("2 byte csid", 70, 0, 10, 20, 0, 0);
+        roundTrip("2 byte csid delta", 70, 33, 10, 20, 0, 2);
+        roundTrip("3 byte csid", 400, 7, 10, 20, 0, 0);
+        roundTrip("3 byte csid delta", 400, 14, 12, 20, 0, 1);
+    }
+
+    private void testExtendedTimestamp() throws IOException {
+        long ts = EXTENDED + 5;
+        roundTrip("extended first", 5, ts, 100, 9, 1, 0);
+        roundTrip("extended delta", 5, ts + 40, 100, 9, 1, 2);
+        roundTrip("extended same delta", 5, ts + 80, 100, 9, 1, 3);
+        roundTrip("extended large delta", 5, ts + 80 + EXTENDED, 100, 9, 1, 2);
+        roundTrip("extended large delta size", 5, ts + 80 + 2 * EXTENDED + 1, 50, 9, 1, 1);
+        roundTrip("exactly extended", 6, EXTENDED, 100, 9, 1, 0);
+        roundTrip("below extended", 7, EXTENDED - 1, 100, 9, 1, 0);
+    }
+
+    private void testPeerHeaders() throws IOException {
+        // type 3 right after type 0 repeats the timestamp
+        RtmpHeader h = readRaw(0, 8, 3000, 100, 9, 1);
+        check("type 0", h.getTimestamp() == 3000, h);
+        h = readRaw(3, 8, -1, -1, -1, -1);
+        check("type 3 after type 0", h.getTimestamp() == 3000, h);
+        // type 3 after type 2 adds its delta
+        h = readRaw(2, 8, 40, -1, -1, -1);
+        check("type 2", h.getTimestamp() == 3040, h);
+        h = readRaw(3, 8, -1, -1, -1, -1);
+        check("type 3 after type 2", h.getTimestamp() == 3080, h);
+        // a new type 0 header drops the delta
+        h = readRaw(0, 8, 5000, 100, 9, 1);
+        h = readRaw(3, 8, -1, -1, -1, -1);
+        check("type 3 after new type 0", h.getTimestamp() == 5000, h);
+        // continuation chunks keep the timestamp of their message
+        h = readRaw(1, 8, 40, 300, 9, -1);
+        check("type 1", h.getTimestamp() == 5040 && h.getSize() == 300, h);
+        RtmpChunkData chunkData = new RtmpChunkData();
+        chunkData.start(h);
+        chunkDataMap.put(8, chunkData);
+        h = readRaw(3, 8, -1, -1, -1, -1);
+        check("continuation chunk", h.getTimestamp() == 5040, h);
+        chunkData.finish();
+        h = readRaw(3, 8, -1, -1, -1, -1);
+        check("type 3 after type 1", h.getTimestamp() == 5080, h);
+        // extended delta in a type 1 header
+        h = readRaw(1, 8, EXTENDED + 1, 300, 9, -1);
+        check("extended type 1", h.getTimestamp() == 5080 + EXTENDED + 1, h);
+        h = readRaw(3, 8, -1, -1, -1, -1);
+        check("type 3 after extended type 1", h.getTimestamp() == 5080 + 2 * (EXTENDED + 1), h);
+    }
+
+    public static void main(String[] args) throws IOException {
+        RtmpHeaderRoundTrip test = new RtmpHeaderRoundTrip();
+        test.testRoundTrip();
+        test.testExtendedTimestamp();
+        test.testPeerHeaders();
+        if (test.failures > 0) {
+            System.out.println(test.failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("RtmpHeaderRoundTrip OK");
+    }
+}